@@ -0,0 +1,61 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What an upload to POST /api/config costs before the flow goes live: Jackson reading the payload, then compiling it.
+ * {@link #deserializeAndCompile} is how uploads used to be read, {@link #streamAndCompile} is {@link FlowReader}, which
+ * they go through now; both also write the {@link FlowPayload} that is stored. {@link #loadStored} is a node loading a flow from the database.
+ * <p>
+ * Run with -prof gc: gc.alloc.rate.norm is what one upload allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FlowDeserializationBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int blocks;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] payload;
+    private byte[] stored;
+
+    @Setup
+    public void setUp() throws IOException {
+        payload = SyntheticFlows.json("deserialization-benchmark", blocks);
+        stored = FlowPayload.encode(mapper.readValue(payload, ChatbotFlow.class));
+    }
+
+    @Benchmark
+    public ChatbotFlow deserialize() throws IOException {
+        return mapper.readValue(payload, ChatbotFlow.class);
+    }
+
+    @Benchmark
+    public CompiledFlow deserializeAndCompile() throws IOException {
+        return CompiledFlow.compile(mapper.readValue(payload, ChatbotFlow.class));
+    }
+
+    @Benchmark
+    public CompiledFlow streamAndCompile() {
+        return FlowReader.read(new ByteArrayInputStream(payload), mapper, null);
+    }
+
+    @Benchmark
+    public CompiledFlow loadStored() {
+        return FlowReader.read(stored, 1);
+    }
+}
@@ -0,0 +1,89 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds flows of any size for the benchmarks.
+ * A flow is a ring of segments: {@link #MESSAGES_PER_SEGMENT} MESSAGE blocks followed by one INTENT_DETECTION block,
+ * the same shape as a real flow where the bot says a few things and then asks a question.
+ * Besides the next segment, every question also jumps to a far away segment, so big flows don't stay in cache.
+ */
+public final class SyntheticFlows {
+
+    public static final int MESSAGES_PER_SEGMENT = 9;
+    public static final int SEGMENT_SIZE = MESSAGES_PER_SEGMENT + 1;
+    public static final List<String> INTENTS = List.of("Continue", "Jump ahead", "Talk to an agent");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private SyntheticFlows() {
+    }
+
+    /**
+     * Builds a flow of about the given number of blocks, rounded up to whole segments.
+     */
+    public static ChatbotFlow build(String flowId, int blocks) {
+        int segments = segments(blocks);
+        List<Block> blockList = new ArrayList<>(segments * SEGMENT_SIZE);
+        for (int segment = 0; segment < segments; segment++) {
+            for (int i = 0; i < MESSAGES_PER_SEGMENT; i++) {
+                Block message = new Block();
+                message.id = messageId(segment, i);
+                message.type = "MESSAGE";
+                message.data = MAPPER.createObjectNode().put("text", "Segment " + segment + ", message " + i + " of the synthetic flow.");
+                message.nextBlockId = i + 1 < MESSAGES_PER_SEGMENT ? messageId(segment, i + 1) : questionId(segment);
+                blockList.add(message);
+            }
+
+            Block question = new Block();
+            question.id = questionId(segment);
+            question.type = "INTENT_DETECTION";
+            ObjectNode data = MAPPER.createObjectNode();
+            data.putArray("intents").add(INTENTS.get(0)).add(INTENTS.get(1)).add(INTENTS.get(2));
+            data.putObject("mappings")
+                    .put(INTENTS.get(0), messageId((segment + 1) % segments, 0))
+                    .put(INTENTS.get(1), messageId(farSegment(segment, segments), 0))
+                    .put(INTENTS.get(2), messageId(0, 0));
+            data.put("fallbackBlockId", messageId(segment, 0));
+            question.data = data;
+            blockList.add(question);
+        }
+
+        ChatbotFlow flow = new ChatbotFlow();
+        flow.flowId = flowId;
+        flow.name = "Synthetic flow of " + blockList.size() + " blocks";
+        flow.startBlockId = messageId(0, 0);
+        flow.blocks = blockList;
+        return flow;
+    }
+
+    public static byte[] json(String flowId, int blocks) {
+        try {
+            return MAPPER.writeValueAsBytes(build(flowId, blocks));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static int segments(int blocks) {
+        return Math.max(1, (blocks + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    }
+
+    public static String messageId(int segment, int index) {
+        return "block-" + segment + "-" + index;
+    }
+
+    public static String questionId(int segment) {
+        return "block-" + segment + "-question";
+    }
+
+    // A fixed, scattered jump, so consecutive turns touch unrelated parts of the flow
+    public static int farSegment(int segment, int segments) {
+        return (int) ((segment * 7919L + 104729L) % segments);
+    }
+}
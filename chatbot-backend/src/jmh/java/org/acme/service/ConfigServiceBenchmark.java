@@ -0,0 +1,71 @@
+package org.acme.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledBlock;
+import org.acme.domain.CompiledFlow;
+import org.acme.domain.SyntheticFlows;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A flow upload while conversations are running: one thread keeps replacing the flow with
+ * {@link ConfigService#updateFlow}, three threads keep looking up blocks like the engine does.
+ * The readers' numbers should not move when the writer is busy compiling a big flow.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigServiceBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int blocks;
+
+    private ConfigService configService;
+    private ChatbotFlow[] flows;
+    private String[] blockIds;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Two different flows with the same block ids, so readers always find something
+        flows = new ChatbotFlow[]{
+                SyntheticFlows.build("config-benchmark-a", blocks),
+                SyntheticFlows.build("config-benchmark-b", blocks)
+        };
+        blockIds = flows[0].blocks.stream().map(block -> block.id).toArray(String[]::new);
+        configService = new ConfigService(new InMemoryFlowStore(), 1_000_000, new SimpleMeterRegistry());
+        configService.updateFlow(flows[0]);
+    }
+
+    @Benchmark
+    @Group("uploadWhileReading")
+    @GroupThreads(1)
+    public CompiledFlow upload(Cursor cursor) {
+        configService.updateFlow(flows[cursor.next++ & 1]);
+        return configService.getCompiledFlow();
+    }
+
+    @Benchmark
+    @Group("uploadWhileReading")
+    @GroupThreads(3)
+    public CompiledBlock read(Cursor cursor) {
+        cursor.next = (cursor.next + 7919) % blockIds.length;
+        return configService.getCompiledFlow().block(blockIds[cursor.next]);
+    }
+}
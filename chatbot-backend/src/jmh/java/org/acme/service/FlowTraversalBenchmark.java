@@ -0,0 +1,118 @@
+package org.acme.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.acme.domain.SyntheticFlows;
+import org.acme.persistence.ConversationEntry;
+import org.acme.persistence.TranscriptJournal;
+import org.acme.service.block.BlockHandlers;
+import org.acme.service.block.IntentDetectionBlockHandler;
+import org.acme.service.block.MessageBlockHandler;
+import org.acme.service.outbound.OutboundChannels;
+import org.acme.service.state.InMemorySessionStateStore;
+import org.acme.service.state.SessionStateCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bot's side of one turn: {@link ChatbotService#processBlock} walking a segment of MESSAGE blocks
+ * until it reaches the next INTENT_DETECTION block. Every operation starts at a different, scattered
+ * segment, so with 100k blocks the lookups miss the CPU caches like they would with many live sessions.
+ * <p>
+ * Sends and transcript entries only go into a field; what is left is the engine itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FlowTraversalBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int blocks;
+
+    // One frame per MESSAGE block, or one per turn
+    @Param({"false", "true"})
+    boolean coalesceReplies;
+
+    private ChatbotService chatbotService;
+    private Session session;
+    private String[] segmentStarts;
+    private int segment;
+
+    // Keep what the engine produced reachable, so the JIT can't optimize it away
+    Object lastSent;
+    Object lastJournaled;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ConfigService configService = new ConfigService(new InMemoryFlowStore(), 1_000_000, registry);
+        configService.updateFlow(SyntheticFlows.build("traversal-benchmark", blocks));
+
+        chatbotService = new ChatbotService();
+        chatbotService.configService = configService;
+        chatbotService.sessionStateStore = new InMemorySessionStateStore(new SessionStateCache(Duration.ofMinutes(30), 100_000, registry));
+        chatbotService.registry = registry;
+        chatbotService.blockHandlers = new BlockHandlers(List.of(new MessageBlockHandler(), new IntentDetectionBlockHandler()));
+        chatbotService.maxStepsPerTurn = 1000;
+        chatbotService.outboundChannels = new OutboundChannels(coalesceReplies, false, 1 << 20, OutboundChannels.SlowConsumerPolicy.DROP, registry);
+        chatbotService.init();
+        chatbotService.transcriptJournal = new TranscriptJournal() {
+            @Override
+            public boolean append(ConversationEntry entry) {
+                lastJournaled = entry;
+                return true;
+            }
+        };
+        session = session("traversal-benchmark-session");
+        segmentStarts = new String[SyntheticFlows.segments(blocks)];
+        for (int i = 0; i < segmentStarts.length; i++) {
+            segmentStarts[i] = SyntheticFlows.messageId(i, 0);
+        }
+    }
+
+    @Benchmark
+    public void turn() {
+        segment = SyntheticFlows.farSegment(segment, segmentStarts.length);
+        chatbotService.processBlock(session, segmentStarts[segment]);
+    }
+
+    private Session session(String id) {
+        RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(
+                FlowTraversalBenchmark.class.getClassLoader(), new Class<?>[]{RemoteEndpoint.Async.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendText")) {
+                        lastSent = args[0];
+                        ((SendHandler) args[1]).onResult(new SendResult());
+                    }
+                    return null;
+                });
+        Map<String, Object> userProperties = new HashMap<>();
+        return (Session) Proxy.newProxyInstance(
+                FlowTraversalBenchmark.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "getAsyncRemote" -> remote;
+                    case "getUserProperties" -> userProperties;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+}
@@ -0,0 +1,37 @@
+package org.acme.service;
+
+import org.acme.domain.CompiledFlow;
+import org.acme.persistence.FlowStore;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link FlowStore} without a database, so the benchmarks measure the registry and not the JDBC round trips.
+ */
+class InMemoryFlowStore extends FlowStore {
+
+    private final Map<String, Loaded> flows = new ConcurrentHashMap<>();
+
+    @Override
+    public long save(CompiledFlow flow) {
+        return flows.merge(flow.flowId(), new Loaded(flow.payload(), 1),
+                (stored, saved) -> new Loaded(flow.payload(), stored.version() + 1)).version();
+    }
+
+    @Override
+    public Loaded load(String flowId) {
+        return flows.get(flowId);
+    }
+
+    @Override
+    public Long version(String flowId) {
+        Loaded loaded = flows.get(flowId);
+        return loaded != null ? loaded.version() : null;
+    }
+
+    @Override
+    public String latestFlowId() {
+        return null;
+    }
+}
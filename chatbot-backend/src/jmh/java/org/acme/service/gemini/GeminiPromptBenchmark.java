@@ -0,0 +1,89 @@
+package org.acme.service.gemini;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.acme.domain.IntentPrompt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything we do around a Gemini call on our side: building the prompt, and reading the answer back,
+ * for single classifications and for a batch of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GeminiPromptBenchmark {
+
+    // The size of a block's intent list
+    @Param({"3", "20"})
+    int intents;
+
+    // Configured like the REST client's mapper, which ignores the many response fields we don't model
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new ParameterNamesModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private List<String> possibleIntents;
+    private String promptPrefix;
+    private String userMessage;
+    private byte[] responseJson;
+    private List<GeminiBatcher.Pending> batch;
+    private String batchAnswer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        possibleIntents = new ArrayList<>();
+        for (int i = 0; i < intents; i++) {
+            possibleIntents.add("Intent number " + i);
+        }
+        promptPrefix = IntentPrompt.prefix(possibleIntents); // Done once per flow version, in CompiledFlow
+        userMessage = "Hi, I ordered a pair of shoes last week and they still haven't arrived, can you tell me where they are?";
+        responseJson = mapper.writeValueAsBytes(mapper.readTree(
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + possibleIntents.get(intents - 1) + "\\n\"}],\"role\":\"model\"},"
+                        + "\"finishReason\":\"STOP\",\"index\":0}],"
+                        + "\"usageMetadata\":{\"promptTokenCount\":120,\"candidatesTokenCount\":4,\"totalTokenCount\":124}}"));
+
+        batch = new ArrayList<>();
+        StringBuilder answer = new StringBuilder("{");
+        for (int i = 1; i <= 20; i++) {
+            batch.add(new GeminiBatcher.Pending(i, userMessage + " #" + i, possibleIntents, null));
+            answer.append(i > 1 ? ", " : "").append('"').append(i).append("\": \"").append(possibleIntents.get(i % intents)).append('"');
+        }
+        batchAnswer = answer.append('}').toString();
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return IntentPrompt.build(promptPrefix, userMessage);
+    }
+
+    @Benchmark
+    public String parseResponse() throws IOException {
+        // What the REST client does with the body, then our own validation of the answer
+        GeminiResponse response = mapper.readValue(responseJson, GeminiResponse.class);
+        return GeminiService.parseIntent(response.firstTextResult(), possibleIntents);
+    }
+
+    @Benchmark
+    public String buildBatchPrompt() {
+        return GeminiBatcher.buildBatchPrompt(batch);
+    }
+
+    @Benchmark
+    public Object parseBatchAnswer() {
+        return GeminiBatcher.parseAnswers(batchAnswer);
+    }
+}
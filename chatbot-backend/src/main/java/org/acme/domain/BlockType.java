@@ -0,0 +1,23 @@
+package org.acme.domain;
+
+// The kinds of blocks the flow compiler knows the data of. Other types can still be run by a plugged-in BlockHandler.
+public enum BlockType {
+    MESSAGE,
+    INTENT_DETECTION,
+    UNKNOWN;
+
+    /**
+     * Maps the "type" string from the JSON configuration to a block type.
+     * Anything else becomes UNKNOWN, which only runs if a BlockHandler was registered for its type.
+     */
+    public static BlockType of(String type) {
+        if (type == null) {
+            return UNKNOWN;
+        }
+        return switch (type) {
+            case "MESSAGE" -> MESSAGE;
+            case "INTENT_DETECTION" -> INTENT_DETECTION;
+            default -> UNKNOWN;
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, pre-parsed view of a {@link Block}.
+ * Everything the engine needs from the block's JSON data is extracted once, at upload time.
+ */
+public record CompiledBlock(
+        String id,
+        BlockType type,
+        String typeName, // The raw "type" string, kept for error messages
+        String text, // MESSAGE blocks only
+        String nextBlockId,
+        List<String> intents, // INTENT_DETECTION blocks only
+        Map<String, String> mappings, // INTENT_DETECTION blocks only
+        String fallbackBlockId, // INTENT_DETECTION blocks only
+        LocalIntentMatcher matcher, // INTENT_DETECTION blocks only, answers the obvious messages without the LLM
+        IntentBackend classifier, // INTENT_DETECTION blocks only
+        NearestIntentIndex examples, // INTENT_DETECTION blocks only, trained from the block's example messages
+        String promptPrefix, // INTENT_DETECTION blocks only, the LLM prompt up to the user's message, see IntentPrompt
+        List<FlowIssue> dataIssues, // What the compiler had to leave out of the block's data, FlowAnalyzer reports it
+        JsonNode data // As uploaded, only for block types that are handled by a plugged-in BlockHandler
+) {
+
+    /**
+     * Returns the block to continue with for the given intent, or the fallback block if the intent is not mapped.
+     */
+    public String targetFor(String intent) {
+        String target = intent == null ? null : mappings.get(intent);
+        return target != null ? target : fallbackBlockId;
+    }
+}
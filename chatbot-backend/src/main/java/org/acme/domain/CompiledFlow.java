@@ -0,0 +1,182 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, indexed version of a {@link ChatbotFlow}.
+ * Built once when a flow is uploaded so the conversation hot path only does constant-time lookups
+ * and never has to walk the Jackson tree again. Every upload is compiled into a new version.
+ */
+public final class CompiledFlow {
+
+    private final ChatbotFlow source;
+    private final long version;
+    private final Map<String, CompiledBlock> blocksById;
+    private final byte[] payload;
+
+    CompiledFlow(ChatbotFlow source, long version, Map<String, CompiledBlock> blocksById, byte[] payload) {
+        this.source = source;
+        this.version = version;
+        this.blocksById = blocksById;
+        this.payload = payload;
+    }
+
+    public static CompiledFlow compile(ChatbotFlow flow) {
+        return compile(flow, 0);
+    }
+
+    /**
+     * The same flow as another version, without compiling it again.
+     */
+    public CompiledFlow withVersion(long version) {
+        return new CompiledFlow(source, version, blocksById, payload);
+    }
+
+    public static CompiledFlow compile(ChatbotFlow flow, long version) {
+        Map<String, CompiledBlock> blocksById = new HashMap<>();
+        if (flow.blocks != null) {
+            for (Block block : flow.blocks) {
+                if (block == null || block.id == null) {
+                    continue;
+                }
+                // The first block wins on duplicate ids, same as the old linear scan did
+                blocksById.putIfAbsent(block.id, compileBlock(block));
+            }
+        }
+        return new CompiledFlow(flow, version, Map.copyOf(blocksById), FlowPayload.encode(flow));
+    }
+
+    static CompiledBlock compileBlock(Block block) {
+        BlockType type = BlockType.of(block.type);
+        JsonNode data = block.data;
+        String text = null;
+        List<String> intents = List.of();
+        Map<String, String> mappings = Map.of();
+        String fallbackBlockId = null;
+        LocalIntentMatcher matcher = LocalIntentMatcher.EMPTY;
+        IntentBackend classifier = IntentBackend.AUTO;
+        NearestIntentIndex examples = NearestIntentIndex.EMPTY;
+        List<FlowIssue> dataIssues = List.of();
+
+        if (data != null) {
+            JsonNode textNode = data.get("text");
+            if (textNode != null && !textNode.isNull()) {
+                text = textNode.asText();
+            }
+
+            JsonNode intentsNode = data.get("intents");
+            if (intentsNode != null && intentsNode.isArray()) {
+                List<String> intentList = new ArrayList<>(intentsNode.size());
+                for (JsonNode node : intentsNode) {
+                    intentList.add(node.asText());
+                }
+                intents = List.copyOf(intentList);
+            }
+
+            JsonNode mappingsNode = data.get("mappings");
+            if (mappingsNode != null && mappingsNode.isObject()) {
+                Map<String, String> mappingMap = new HashMap<>();
+                mappingsNode.fields().forEachRemaining(entry -> mappingMap.put(entry.getKey(), entry.getValue().asText()));
+                mappings = Map.copyOf(mappingMap);
+            }
+
+            JsonNode fallbackNode = data.get("fallbackBlockId");
+            if (fallbackNode != null && !fallbackNode.isNull()) {
+                fallbackBlockId = fallbackNode.asText();
+            }
+
+            if (type == BlockType.INTENT_DETECTION) {
+                // Bad classifier data doesn't stop the compiler, so it is reported with the rest of the flow's issues
+                List<FlowIssue> found = new ArrayList<>(0);
+                try {
+                    matcher = LocalIntentMatcher.compile(intents, data.get("synonyms"), data.get("patterns"));
+                } catch (IllegalArgumentException e) {
+                    found.add(new FlowIssue("BAD_PATTERN", block.id, "Block '" + block.id + "': " + e.getMessage() + "."));
+                }
+                JsonNode classifierNode = data.get("classifier");
+                String classifierName = classifierNode != null && !classifierNode.isNull() ? classifierNode.asText() : null;
+                classifier = IntentBackend.of(classifierName);
+                if (classifier == null) {
+                    found.add(new FlowIssue("UNKNOWN_CLASSIFIER", block.id,
+                            "Block '" + block.id + "' has the classifier '" + classifierName + "', expected auto, local or gemini."));
+                    classifier = IntentBackend.AUTO;
+                }
+                JsonNode examplesNode = data.get("examples");
+                if (examplesNode != null && examplesNode.isObject()) {
+                    for (Iterator<String> names = examplesNode.fieldNames(); names.hasNext(); ) {
+                        String intent = names.next();
+                        if (!intents.contains(intent)) {
+                            found.add(new FlowIssue("UNKNOWN_EXAMPLE_INTENT", block.id,
+                                    "Block '" + block.id + "' has examples for '" + intent + "', which is not one of its intents."));
+                        }
+                    }
+                }
+                double minSimilarity = Double.NaN;
+                JsonNode minSimilarityNode = data.get("minSimilarity");
+                if (minSimilarityNode != null && !minSimilarityNode.isNull()) {
+                    if (minSimilarityNode.isNumber() && minSimilarityNode.asDouble() >= 0 && minSimilarityNode.asDouble() <= 1) {
+                        minSimilarity = minSimilarityNode.asDouble();
+                    } else {
+                        found.add(new FlowIssue("BAD_MIN_SIMILARITY", block.id,
+                                "Block '" + block.id + "' has the minSimilarity '" + minSimilarityNode.asText() + "', it must be a number between 0 and 1."));
+                    }
+                }
+                examples = NearestIntentIndex.compile(intents, examplesNode, minSimilarity);
+                dataIssues = List.copyOf(found);
+            }
+        }
+
+        String promptPrefix = type == BlockType.INTENT_DETECTION ? IntentPrompt.prefix(intents) : null;
+        return new CompiledBlock(block.id, type, block.type, text, block.nextBlockId,
+                intents, mappings, fallbackBlockId, matcher, classifier, examples, promptPrefix, dataIssues,
+                type == BlockType.UNKNOWN ? data : null);
+    }
+
+    public String flowId() {
+        return source.flowId;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public String startBlockId() {
+        return source.startBlockId;
+    }
+
+    /**
+     * Looks up a block by its id. Returns null if the flow has no such block.
+     */
+    public CompiledBlock block(String blockId) {
+        return blockId == null ? null : blocksById.get(blockId);
+    }
+
+    public Collection<CompiledBlock> blocks() {
+        return blocksById.values();
+    }
+
+    public int size() {
+        return blocksById.size();
+    }
+
+    /**
+     * The flow's fields and blocks. A flow read by {@link FlowReader} has no data in its built-in blocks, that was compiled.
+     */
+    public ChatbotFlow source() {
+        return source;
+    }
+
+    /**
+     * The flow as it was uploaded, see {@link FlowPayload}.
+     */
+    public byte[] payload() {
+        return payload;
+    }
+}
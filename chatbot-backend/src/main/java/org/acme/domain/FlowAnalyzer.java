@@ -0,0 +1,200 @@
+package org.acme.domain;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks a flow at upload time, so a broken flow is turned away with a list of what is wrong
+ * instead of failing in the middle of a conversation.
+ * <p>
+ * Every check is one pass over the blocks or over their links, with hash lookups only; a 100k-block flow takes milliseconds.
+ * Nothing here recurses, so a long chain of blocks can't overflow the stack either.
+ */
+public final class FlowAnalyzer {
+
+    // A flow with thousands of broken links gets the first ones back, and how many there are
+    static final int MAX_REPORTED = 100;
+    // Blocks named when reporting a loop
+    private static final int MAX_LOOP_SHOWN = 10;
+
+    private static final Set<String> BUILT_IN_TYPES = Set.of(BlockType.MESSAGE.name(), BlockType.INTENT_DETECTION.name());
+
+    private static final int ON_PATH = 1;
+    private static final int DONE = 2;
+
+    private FlowAnalyzer() {
+    }
+
+    /**
+     * Throws a {@link FlowValidationException} if anything is wrong with a flow that only uses the built-in block types.
+     *
+     * @param compiled the flow compiled from {@code flow}, which has the parsed block data
+     */
+    public static void validate(ChatbotFlow flow, CompiledFlow compiled) {
+        validate(flow, compiled, BUILT_IN_TYPES);
+    }
+
+    /**
+     * Throws a {@link FlowValidationException} if anything is wrong with the flow.
+     * Blocks of a type other than MESSAGE and INTENT_DETECTION are fine if it is one of {@code blockTypes},
+     * and like MESSAGE blocks they continue with their nextBlockId.
+     */
+    public static void validate(ChatbotFlow flow, CompiledFlow compiled, Set<String> blockTypes) {
+        Issues issues = new Issues();
+        List<CompiledBlock> blocks = checkIds(flow, compiled, issues);
+        for (CompiledBlock block : blocks) {
+            checkLinks(block, compiled, blockTypes, issues);
+        }
+        if (flow.startBlockId == null) {
+            issues.add("MISSING_START", null, "The flow has no startBlockId.");
+        } else if (compiled.block(flow.startBlockId) == null) {
+            issues.add("DANGLING_START", null, "The startBlockId '" + flow.startBlockId + "' is not a block of this flow.");
+        } else {
+            checkReachable(flow.startBlockId, blocks, compiled, issues);
+        }
+        checkMessageLoops(blocks, compiled, issues);
+        if (issues.count > 0) {
+            throw new FlowValidationException(issues.reported, issues.count);
+        }
+    }
+
+    // Every block needs an id of its own. Returns the blocks that have one, in upload order.
+    private static List<CompiledBlock> checkIds(ChatbotFlow flow, CompiledFlow compiled, Issues issues) {
+        if (flow.blocks == null) {
+            return List.of();
+        }
+        List<CompiledBlock> blocks = new ArrayList<>(flow.blocks.size());
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < flow.blocks.size(); i++) {
+            Block block = flow.blocks.get(i);
+            if (block == null || block.id == null || block.id.isBlank()) {
+                issues.add("MISSING_ID", null, "Block number " + (i + 1) + " has no id.");
+            } else if (!seen.add(block.id)) {
+                issues.add("DUPLICATE_ID", block.id, "There is more than one block with the id '" + block.id + "'.");
+            } else {
+                blocks.add(compiled.block(block.id));
+            }
+        }
+        return blocks;
+    }
+
+    private static void checkLinks(CompiledBlock block, CompiledFlow compiled, Set<String> blockTypes, Issues issues) {
+        String id = block.id();
+        if (block.typeName() == null || !blockTypes.contains(block.typeName())) {
+            issues.add("UNKNOWN_TYPE", id, "Block '" + id + "' has the type '" + block.typeName() + "', which is not a block type.");
+            return;
+        }
+        switch (block.type()) {
+            case INTENT_DETECTION -> {
+                if (block.intents().isEmpty()) {
+                    issues.add("MISSING_INTENTS", id, "INTENT_DETECTION block '" + id + "' has no intents.");
+                }
+                // A bad classifier, examples, minSimilarity or pattern, found by the compiler
+                for (FlowIssue issue : block.dataIssues()) {
+                    issues.add(issue.code(), issue.blockId(), issue.message());
+                }
+                // In the order of the intents, so the same flow always gets the same report
+                for (String intent : block.intents()) {
+                    String target = block.mappings().get(intent);
+                    if (target != null && compiled.block(target) == null) {
+                        issues.add("DANGLING_MAPPING", id, "Block '" + id + "' maps '" + intent + "' to '" + target + "', which is not a block of this flow.");
+                    }
+                }
+                if (block.mappings().size() > block.intents().size() || !block.intents().containsAll(block.mappings().keySet())) {
+                    Set<String> intents = new HashSet<>(block.intents());
+                    block.mappings().keySet().stream().filter(intent -> !intents.contains(intent)).sorted().forEach(intent ->
+                            issues.add("UNKNOWN_INTENT", id, "Block '" + id + "' maps '" + intent + "', which is not one of its intents."));
+                }
+                if (block.fallbackBlockId() == null) {
+                    issues.add("MISSING_FALLBACK", id, "Block '" + id + "' has no fallbackBlockId, a message that matches no intent would end the conversation.");
+                } else if (compiled.block(block.fallbackBlockId()) == null) {
+                    issues.add("DANGLING_FALLBACK", id, "Block '" + id + "' falls back to '" + block.fallbackBlockId() + "', which is not a block of this flow.");
+                }
+            }
+            default -> {
+                if (block.type() == BlockType.MESSAGE && block.text() == null) {
+                    issues.add("MISSING_TEXT", id, "MESSAGE block '" + id + "' has no text.");
+                }
+                if (block.nextBlockId() != null && compiled.block(block.nextBlockId()) == null) {
+                    issues.add("DANGLING_NEXT", id, "Block '" + id + "' continues with '" + block.nextBlockId() + "', which is not a block of this flow.");
+                }
+            }
+        }
+    }
+
+    private static void checkReachable(String startBlockId, List<CompiledBlock> blocks, CompiledFlow compiled, Issues issues) {
+        Set<String> reached = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        reached.add(startBlockId);
+        pending.push(startBlockId);
+        while (!pending.isEmpty()) {
+            CompiledBlock block = compiled.block(pending.pop());
+            if (block == null) {
+                continue; // Dangling, reported already
+            }
+            if (block.type() == BlockType.INTENT_DETECTION) {
+                for (String target : block.mappings().values()) {
+                    follow(target, reached, pending);
+                }
+                follow(block.fallbackBlockId(), reached, pending);
+            } else {
+                follow(block.nextBlockId(), reached, pending);
+            }
+        }
+        for (CompiledBlock block : blocks) {
+            if (!reached.contains(block.id())) {
+                issues.add("UNREACHABLE", block.id(), "Block '" + block.id() + "' can't be reached from the start block.");
+            }
+        }
+    }
+
+    private static void follow(String blockId, Set<String> reached, Deque<String> pending) {
+        if (blockId != null && reached.add(blockId)) {
+            pending.push(blockId);
+        }
+    }
+
+    // MESSAGE blocks that lead back to themselves without an INTENT_DETECTION in between would be sent forever.
+    // Each block has at most one next MESSAGE block, so walking every chain once and marking it is enough.
+    // A plugged-in block type may wait for the user, so loops through one are left to the engine's step budget.
+    private static void checkMessageLoops(List<CompiledBlock> blocks, CompiledFlow compiled, Issues issues) {
+        Map<String, Integer> state = new HashMap<>();
+        List<String> path = new ArrayList<>();
+        for (CompiledBlock first : blocks) {
+            path.clear();
+            CompiledBlock current = first;
+            while (current != null && current.type() == BlockType.MESSAGE && !state.containsKey(current.id())) {
+                state.put(current.id(), ON_PATH);
+                path.add(current.id());
+                current = compiled.block(current.nextBlockId());
+            }
+            if (current != null && current.type() == BlockType.MESSAGE && state.get(current.id()) == ON_PATH) {
+                List<String> loop = path.subList(path.indexOf(current.id()), path.size());
+                String shown = String.join(" -> ", loop.subList(0, Math.min(loop.size(), MAX_LOOP_SHOWN)))
+                        + (loop.size() > MAX_LOOP_SHOWN ? " -> ..." : "") + " -> " + current.id();
+                issues.add("MESSAGE_LOOP", current.id(), "MESSAGE blocks loop without waiting for the user: " + shown + ".");
+            }
+            for (String id : path) {
+                state.put(id, DONE);
+            }
+        }
+    }
+
+    private static final class Issues {
+        final List<FlowIssue> reported = new ArrayList<>();
+        int count;
+
+        void add(String code, String blockId, String message) {
+            count++;
+            if (reported.size() < MAX_REPORTED) {
+                reported.add(new FlowIssue(code, blockId, message));
+            }
+        }
+    }
+}
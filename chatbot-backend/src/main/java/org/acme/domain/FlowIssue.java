@@ -0,0 +1,11 @@
+package org.acme.domain;
+
+/**
+ * One problem {@link FlowAnalyzer} found in a flow.
+ *
+ * @param code    what kind of problem, e.g. DANGLING_NEXT
+ * @param blockId the block it is about, null if it is about the flow itself
+ * @param message what is wrong, for people
+ */
+public record FlowIssue(String code, String blockId, String message) {
+}
@@ -0,0 +1,53 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A flow as it was uploaded, in Smile, Jackson's binary JSON. This is what is stored, and what a {@link CompiledFlow} keeps
+ * for GET /api/config instead of the uploaded objects: block types, field names and repeated texts are written once and
+ * referenced after that, so a big flow is one byte array a fraction of the size of its JSON.
+ */
+public final class FlowPayload {
+
+    private static final ObjectMapper SMILE = SmileMapper.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            // Rows written before a field was dropped from the model can still be read
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private FlowPayload() {
+    }
+
+    public static byte[] encode(ChatbotFlow flow) {
+        try {
+            return SMILE.writeValueAsBytes(flow);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static ChatbotFlow decode(byte[] payload) {
+        try {
+            return SMILE.readValue(payload, ChatbotFlow.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Stored flow cannot be read", e);
+        }
+    }
+
+    static JsonGenerator generator(OutputStream out) throws IOException {
+        return SMILE.createGenerator(out);
+    }
+
+    static JsonParser parser(byte[] payload) throws IOException {
+        return SMILE.createParser(payload);
+    }
+}
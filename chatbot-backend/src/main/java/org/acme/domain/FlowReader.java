@@ -0,0 +1,214 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a flow with Jackson's streaming parser, and compiles every block as soon as it is read.
+ * <p>
+ * The parser only ever buffers a few kB of the body, and only one block's data is a tree at a time: once the block is
+ * compiled the tree is dropped, unless a plugged-in handler needs it. What is kept of the upload as it was is its
+ * {@link FlowPayload}, written while reading. A body that isn't a flow stops the upload right where it is, while bad data
+ * in a block is left to FlowAnalyzer to report. Stored flows are read the same way from their payload.
+ */
+public final class FlowReader {
+
+    private final JsonParser parser;
+    private final JsonGenerator copy; // Null when reading a payload, which is already what would be written
+    private final Map<String, CompiledBlock> blocksById = new HashMap<>();
+
+    private FlowReader(JsonParser parser, JsonGenerator copy) {
+        this.parser = parser;
+        this.copy = copy;
+    }
+
+    /**
+     * Reads and compiles an uploaded flow. Returns null for an empty body or JSON null.
+     *
+     * @param flowId the flow's id if the body leaves it out, may be null
+     * @throws IllegalArgumentException if the body isn't a flow.
+     */
+    public static CompiledFlow read(InputStream json, ObjectMapper mapper, String flowId) {
+        ByteArrayBuilder payload = new ByteArrayBuilder(); // Grows in chunks, nothing is copied until the end
+        try (JsonParser parser = mapper.createParser(json); JsonGenerator copy = FlowPayload.generator(payload)) {
+            FlowReader reader = new FlowReader(parser, copy);
+            ChatbotFlow flow = reader.readFlow(flowId);
+            if (flow == null) {
+                return null;
+            }
+            copy.flush();
+            return new CompiledFlow(flow, 0, Map.copyOf(reader.blocksById), payload.toByteArray());
+        } catch (JsonProcessingException e) {
+            JsonLocation at = e.getLocation();
+            throw new IllegalArgumentException("The flow is not valid JSON"
+                    + (at != null ? ", at line " + at.getLineNr() + ", column " + at.getColumnNr() : "") + ".");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads and compiles a stored flow.
+     */
+    public static CompiledFlow read(byte[] payload, long version) {
+        try (JsonParser parser = FlowPayload.parser(payload)) {
+            FlowReader reader = new FlowReader(parser, null);
+            ChatbotFlow flow = reader.readFlow(null);
+            if (flow == null) {
+                throw new IllegalArgumentException("The stored flow is empty.");
+            }
+            return new CompiledFlow(flow, version, Map.copyOf(reader.blocksById), payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Stored flow cannot be read", e);
+        }
+    }
+
+    private ChatbotFlow readFlow(String flowId) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("A flow must be a JSON object.");
+        }
+        ChatbotFlow flow = new ChatbotFlow();
+        if (copy != null) {
+            copy.writeStartObject();
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "flowId" -> flow.flowId = text(field);
+                case "name" -> flow.name = text(field);
+                case "startBlockId" -> flow.startBlockId = text(field);
+                case "blocks" -> flow.blocks = readBlocks();
+                default -> parser.skipChildren(); // Unknown fields are ignored, as when binding
+            }
+        }
+        if (flow.flowId == null && flowId != null) {
+            flow.flowId = flowId;
+            if (copy != null) {
+                copy.writeStringField("flowId", flowId);
+            }
+        }
+        if (copy != null) {
+            copy.writeEndObject();
+        }
+        return flow;
+    }
+
+    private List<Block> readBlocks() throws IOException {
+        if (copy != null) {
+            copy.writeFieldName("blocks");
+        }
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            if (copy != null) {
+                copy.writeNull();
+            }
+            return null;
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("blocks must be an array.");
+        }
+        if (copy != null) {
+            copy.writeStartArray();
+        }
+        List<Block> blocks = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            Block block = readBlock();
+            blocks.add(block);
+            if (block != null && block.id != null) {
+                // The first block wins on duplicate ids, same as CompiledFlow.compile
+                blocksById.putIfAbsent(block.id, CompiledFlow.compileBlock(block));
+            }
+            if (block != null && BlockType.of(block.type) != BlockType.UNKNOWN) {
+                block.data = null; // Compiled, and in the payload
+            }
+        }
+        if (copy != null) {
+            copy.writeEndArray();
+        }
+        return blocks;
+    }
+
+    private Block readBlock() throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            if (copy != null) {
+                copy.writeNull();
+            }
+            return null;
+        }
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Every block must be a JSON object.");
+        }
+        if (copy != null) {
+            copy.writeStartObject();
+        }
+        Block block = new Block();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> block.id = text(field);
+                case "type" -> block.type = type(text(field));
+                case "nextBlockId" -> block.nextBlockId = text(field);
+                case "data" -> block.data = data();
+                default -> parser.skipChildren();
+            }
+        }
+        if (copy != null) {
+            copy.writeEndObject();
+        }
+        return block;
+    }
+
+    // Only the data gets a tree, one block's at a time
+    private JsonNode data() throws IOException {
+        JsonNode data = parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.readValueAsTree();
+        if (copy != null) {
+            copy.writeFieldName("data");
+            if (data != null) {
+                copy.writeTree(data);
+            } else {
+                copy.writeNull();
+            }
+        }
+        return data;
+    }
+
+    // Every block of a type shares one string for it, instead of one copy per block
+    private static String type(String type) {
+        BlockType known = BlockType.of(type);
+        return known != BlockType.UNKNOWN ? known.name() : type;
+    }
+
+    private String text(String field) throws IOException {
+        String value;
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            value = null;
+        } else if (parser.currentToken().isScalarValue()) {
+            value = parser.getValueAsString();
+        } else {
+            throw new IllegalArgumentException(field + " must be a string.");
+        }
+        if (copy != null) {
+            copy.writeStringField(field, value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,26 @@
+package org.acme.domain;
+
+import java.util.List;
+
+/**
+ * Thrown for an upload that {@link FlowAnalyzer} rejected. Carries the first problems found and how many there were.
+ */
+public class FlowValidationException extends IllegalArgumentException {
+
+    private final List<FlowIssue> issues;
+    private final int issueCount;
+
+    public FlowValidationException(List<FlowIssue> issues, int issueCount) {
+        super("The flow has " + issueCount + (issueCount == 1 ? " problem" : " problems") + ", the first one: " + issues.get(0).message());
+        this.issues = List.copyOf(issues);
+        this.issueCount = issueCount;
+    }
+
+    public List<FlowIssue> issues() {
+        return issues;
+    }
+
+    public int issueCount() {
+        return issueCount;
+    }
+}
@@ -0,0 +1,25 @@
+package org.acme.domain;
+
+import java.util.Locale;
+
+// Which classifiers an INTENT_DETECTION block may use, from its "classifier" data. LocalIntentMatcher always goes first.
+public enum IntentBackend {
+    AUTO, // The block's examples, then Gemini for what they aren't sure about
+    LOCAL, // The block's examples only, never a network call; below the threshold is NO_MATCH
+    GEMINI; // Straight to Gemini
+
+    /**
+     * Maps the "classifier" string from the block data, AUTO when there is none, null if it is none of these.
+     */
+    public static IntentBackend of(String classifier) {
+        if (classifier == null) {
+            return AUTO;
+        }
+        return switch (classifier.toLowerCase(Locale.ROOT)) {
+            case "auto" -> AUTO;
+            case "local" -> LOCAL;
+            case "gemini" -> GEMINI;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,236 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An in-process intent matcher for one INTENT_DETECTION block, built when the flow is uploaded.
+ * It only answers when the answer is obvious, and returns null otherwise so the message can go to the LLM.
+ * <p>
+ * In order, a message matches an intent when:
+ * <ol>
+ *     <li>it is the intent itself, or one of its synonyms from the block's "synonyms" data,</li>
+ *     <li>exactly one intent's regular expression from the block's "patterns" data finds a match,</li>
+ *     <li>it contains every word of exactly one intent and little else, and doesn't negate it.</li>
+ * </ol>
+ */
+public final class LocalIntentMatcher {
+
+    public static final LocalIntentMatcher EMPTY = new LocalIntentMatcher(Map.of(), new Pattern[0], new String[0], new String[0], new String[0][]);
+
+    // A message may have this many words beyond the intent's own and still count as "the intent word almost verbatim"
+    private static final int MAX_EXTRA_TOKENS = 2;
+    private static final Set<String> NEGATIONS = Set.of("not", "no", "don't", "dont", "never", "nope", "nothing", "without");
+
+    private final Map<String, String> phrases; // Normalized intent or synonym -> intent
+    private final Pattern[] patterns;
+    private final String[] patternIntents;
+    private final String[] intents;
+    private final String[][] intentTokens;
+
+    private LocalIntentMatcher(Map<String, String> phrases, Pattern[] patterns, String[] patternIntents,
+                               String[] intents, String[][] intentTokens) {
+        this.phrases = phrases;
+        this.patterns = patterns;
+        this.patternIntents = patternIntents;
+        this.intents = intents;
+        this.intentTokens = intentTokens;
+    }
+
+    /**
+     * Builds the matcher for a block.
+     *
+     * @param intents The block's intents.
+     * @param synonymsNode Optional object of intent -> array of alternative phrasings.
+     * @param patternsNode Optional object of intent -> regular expression, matched against the normalized message.
+     * @throws IllegalArgumentException if a pattern is not a valid regular expression.
+     */
+    public static LocalIntentMatcher compile(List<String> intents, JsonNode synonymsNode, JsonNode patternsNode) {
+        if (intents.isEmpty()) {
+            return EMPTY;
+        }
+
+        Map<String, String> phrases = new HashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        String[][] intentTokens = new String[intents.size()][];
+        for (int i = 0; i < intents.size(); i++) {
+            String intent = intents.get(i);
+            addPhrase(phrases, ambiguous, normalize(intent), intent);
+            intentTokens[i] = tokenize(normalize(intent));
+
+            JsonNode synonyms = synonymsNode != null ? synonymsNode.get(intent) : null;
+            if (synonyms != null && synonyms.isArray()) {
+                for (JsonNode synonym : synonyms) {
+                    addPhrase(phrases, ambiguous, normalize(synonym.asText()), intent);
+                }
+            }
+        }
+        // A phrase that belongs to two intents tells us nothing
+        ambiguous.forEach(phrases::remove);
+
+        List<Pattern> patterns = new ArrayList<>();
+        List<String> patternIntents = new ArrayList<>();
+        if (patternsNode != null && patternsNode.isObject()) {
+            for (String intent : intents) {
+                JsonNode pattern = patternsNode.get(intent);
+                if (pattern == null || !pattern.isTextual()) {
+                    continue;
+                }
+                try {
+                    patterns.add(Pattern.compile(pattern.asText(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+                    patternIntents.add(intent);
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("Invalid pattern for intent '" + intent + "': " + e.getDescription());
+                }
+            }
+        }
+
+        return new LocalIntentMatcher(Map.copyOf(phrases), patterns.toArray(Pattern[]::new), patternIntents.toArray(String[]::new),
+                intents.toArray(String[]::new), intentTokens);
+    }
+
+    private static void addPhrase(Map<String, String> phrases, Set<String> ambiguous, String phrase, String intent) {
+        if (phrase.isEmpty()) {
+            return;
+        }
+        String existing = phrases.putIfAbsent(phrase, intent);
+        if (existing != null && !existing.equals(intent)) {
+            ambiguous.add(phrase);
+        }
+    }
+
+    /**
+     * Returns the matched intent, or null if the message is not an obvious match.
+     */
+    public String match(String userMessage) {
+        if (intents.length == 0) {
+            return null;
+        }
+        String normalized = normalize(userMessage);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+
+        String phraseMatch = phrases.get(normalized);
+        if (phraseMatch != null) {
+            return phraseMatch;
+        }
+
+        String patternMatch = null;
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].matcher(normalized).find()) {
+                if (patternMatch != null && !patternMatch.equals(patternIntents[i])) {
+                    return null; // Two intents claim the message, let the LLM decide
+                }
+                patternMatch = patternIntents[i];
+            }
+        }
+        if (patternMatch != null) {
+            return patternMatch;
+        }
+
+        String[] tokens = tokenize(normalized);
+        int tokenMatch = -1;
+        for (int i = 0; i < intents.length; i++) {
+            String[] required = intentTokens[i];
+            if (required.length == 0 || tokens.length > required.length + MAX_EXTRA_TOKENS) {
+                continue;
+            }
+            if (containsAll(tokens, required)) {
+                if (tokenMatch >= 0) {
+                    return null; // "yes and no" mentions two intents
+                }
+                tokenMatch = i;
+            }
+        }
+        return tokenMatch >= 0 && !negates(tokens, intentTokens[tokenMatch]) ? intents[tokenMatch] : null;
+    }
+
+    private static boolean containsAll(String[] tokens, String[] required) {
+        for (String word : required) {
+            if (!contains(tokens, word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // "not billing" contains the word "billing", but it is not the billing intent
+    private static boolean negates(String[] tokens, String[] intentWords) {
+        for (String token : tokens) {
+            if (NEGATIONS.contains(token) && !contains(intentWords, token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(String[] words, String word) {
+        for (String candidate : words) {
+            if (candidate.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Folds away the differences that don't change the meaning of a short message:
+     * case, surrounding and repeated whitespace, and trailing punctuation.
+     */
+    public static String normalize(String message) {
+        if (message == null) {
+            return "";
+        }
+        String lower = message.toLowerCase(Locale.ROOT);
+        StringBuilder normalized = new StringBuilder(lower.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    normalized.append(' ');
+                    pendingSpace = false;
+                }
+                normalized.append(c);
+            }
+        }
+        int end = normalized.length();
+        while (end > 0 && isTrailingPunctuation(normalized.charAt(end - 1))) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString().trim();
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '.' || c == '!' || c == '?' || c == ',' || c == ';' || c == ' ';
+    }
+
+    static String[] tokenize(String normalized) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length()
+                    && (Character.isLetterOrDigit(normalized.charAt(i)) || normalized.charAt(i) == '\'');
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(String[]::new);
+    }
+}
@@ -0,0 +1,165 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An offline intent classifier for one INTENT_DETECTION block, trained when the flow is uploaded
+ * from the intents themselves and the example utterances in the block's "examples" data.
+ * <p>
+ * Every utterance becomes a hashed bag of words, word pairs and character trigrams, normalized to length 1,
+ * so a message's cosine similarity to an example is a plain dot product. Trigrams make it forgive typos and word forms,
+ * pairs keep a bit of word order. The vectors sit in one float array, and a lookup is a linear scan over it that only
+ * touches the message's own features, which is a few microseconds for a block with hundreds of examples.
+ */
+public final class NearestIntentIndex {
+
+    public static final NearestIntentIndex EMPTY = new NearestIntentIndex(new float[0], new String[0], Double.NaN);
+
+    // Feature hashing into this many dimensions. Collisions cost a little accuracy, never correctness.
+    static final int DIMENSIONS = 512;
+
+    private final float[] vectors; // One row of DIMENSIONS per example
+    private final String[] intents; // The intent of each row
+    private final double minSimilarity; // The block's own threshold, NaN to use the configured one
+
+    /**
+     * The example closest to a message, and how close it is, from -1 to 1.
+     */
+    public record Match(String intent, double similarity) {
+    }
+
+    private NearestIntentIndex(float[] vectors, String[] intents, double minSimilarity) {
+        this.vectors = vectors;
+        this.intents = intents;
+        this.minSimilarity = minSimilarity;
+    }
+
+    /**
+     * Trains the index of a block.
+     *
+     * @param intents The block's intents.
+     * @param examplesNode Optional object of intent -> array of example messages. Examples for other intents are left out.
+     * @param minSimilarity The block's own threshold, NaN for none.
+     */
+    public static NearestIntentIndex compile(List<String> intents, JsonNode examplesNode, double minSimilarity) {
+        if (examplesNode == null || !examplesNode.isObject() || examplesNode.isEmpty()) {
+            // Without examples, the intent names alone are what LocalIntentMatcher already covers
+            return EMPTY;
+        }
+
+        List<String> rowIntents = new ArrayList<>();
+        List<float[]> rows = new ArrayList<>();
+        for (String intent : intents) {
+            List<String> utterances = new ArrayList<>();
+            utterances.add(intent);
+            JsonNode examples = examplesNode.get(intent);
+            if (examples != null && examples.isArray()) {
+                examples.forEach(example -> utterances.add(example.asText()));
+            }
+            for (String utterance : utterances) {
+                float[] vector = vectorize(utterance);
+                if (vector != null) {
+                    rows.add(vector);
+                    rowIntents.add(intent);
+                }
+            }
+        }
+
+        float[] vectors = new float[rows.size() * DIMENSIONS];
+        for (int i = 0; i < rows.size(); i++) {
+            System.arraycopy(rows.get(i), 0, vectors, i * DIMENSIONS, DIMENSIONS);
+        }
+        return new NearestIntentIndex(vectors, rowIntents.toArray(String[]::new), minSimilarity);
+    }
+
+    public boolean isEmpty() {
+        return intents.length == 0;
+    }
+
+    /**
+     * The block's own minimum similarity for a match, or {@code fallback} if it has none.
+     */
+    public double minSimilarity(double fallback) {
+        return Double.isNaN(minSimilarity) ? fallback : minSimilarity;
+    }
+
+    /**
+     * The intent of the example most similar to the message, or null if the index is empty or the message has no words.
+     */
+    public Match nearest(String userMessage) {
+        if (intents.length == 0) {
+            return null;
+        }
+        float[] query = vectorize(userMessage);
+        if (query == null) {
+            return null;
+        }
+        // A message has a few dozen features out of DIMENSIONS, so the scan only looks at those
+        int[] features = new int[DIMENSIONS];
+        int count = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            if (query[i] != 0) {
+                features[count++] = i;
+            }
+        }
+
+        int best = -1;
+        double bestSimilarity = -2;
+        for (int row = 0, offset = 0; row < intents.length; row++, offset += DIMENSIONS) {
+            float similarity = 0;
+            for (int i = 0; i < count; i++) {
+                int feature = features[i];
+                similarity += query[feature] * vectors[offset + feature];
+            }
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                best = row;
+            }
+        }
+        return new Match(intents[best], bestSimilarity);
+    }
+
+    // The unit-length feature vector of a message, or null if it has no words
+    static float[] vectorize(String message) {
+        String[] tokens = LocalIntentMatcher.tokenize(LocalIntentMatcher.normalize(message));
+        if (tokens.length == 0) {
+            return null;
+        }
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            add(vector, token.hashCode(), 1f);
+            if (i > 0) {
+                add(vector, 31 * tokens[i - 1].hashCode() + token.hashCode() + 0x9e3779b9, 0.5f);
+            }
+            // Trigrams of the word with its boundaries, "^ye", "yes", "es$"
+            String padded = '^' + token + '$';
+            for (int j = 0; j + 3 <= padded.length(); j++) {
+                add(vector, padded.substring(j, j + 3).hashCode() * 0x85ebca6b, 0.5f);
+            }
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    // One bit of the hash picks the sign, so collisions tend to cancel out instead of adding up
+    private static void add(float[] vector, int hash, float weight) {
+        int mixed = hash ^ (hash >>> 16);
+        mixed *= 0x45d9f3b;
+        mixed ^= mixed >>> 16;
+        vector[(mixed & 0x7fffffff) % DIMENSIONS] += (mixed & 0x80000000) != 0 ? -weight : weight;
+    }
+}
@@ -1,12 +1,30 @@
 package org.acme.persistence;
 
-import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
 
 import java.time.Instant;
 
 @Entity
-public class ConversationEntry extends PanacheEntity { // Extending PanacheEntity gives us an automatic 'id' field
+// Transcripts are read a conversation at a time or by time range, both in (timestamp, id) order, see TranscriptReader
+@Table(indexes = {
+        @Index(name = "conversationentry_conversation_time", columnList = "conversationId, timestamp, id"),
+        @Index(name = "conversationentry_time", columnList = "timestamp, id")
+})
+public class ConversationEntry extends PanacheEntityBase {
+
+    // The sequence and increment PanacheEntity used, so existing databases keep working as they are.
+    // Ids are reserved 50 at a time, a batch from the TranscriptJournal costs a few sequence round trips.
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "conversationEntrySeq")
+    @SequenceGenerator(name = "conversationEntrySeq", sequenceName = "ConversationEntry_SEQ", allocationSize = 50)
+    public Long id;
 
     public String conversationId;
     public Instant timestamp;
@@ -25,4 +43,4 @@ public class ConversationEntry extends PanacheEntity { // Extending PanacheEntit
         this.blockId = blockId;
         this.timestamp = Instant.now();
     }
-}
\ No newline at end of file
+}
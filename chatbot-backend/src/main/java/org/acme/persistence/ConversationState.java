@@ -0,0 +1,33 @@
+package org.acme.persistence;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Where a conversation currently is in the flow, so it can be picked up again after a reconnect, on any node.
+ */
+@Entity
+@Table(indexes = @Index(name = "conversationstate_updated", columnList = "updatedAt"))
+public class ConversationState extends PanacheEntityBase {
+
+    @Id
+    public String conversationId; // With its flow, see SessionStateStore.key
+
+    public String blockId; // The INTENT_DETECTION block waiting for the user's next message
+    public Instant updatedAt; // Rows not updated for chatbot.session-state.retention are deleted
+
+    public ConversationState() {
+        // Default constructor required by JPA
+    }
+
+    public ConversationState(String conversationId, String blockId) {
+        this.conversationId = conversationId;
+        this.blockId = blockId;
+        this.updatedAt = Instant.now();
+    }
+}
@@ -0,0 +1,126 @@
+package org.acme.persistence;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.LockModeType;
+import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledFlow;
+import org.hibernate.exception.ConstraintViolationException;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The uploaded flows, in the database. Every call is its own transaction.
+ * <p>
+ * Flows are stored as their {@link org.acme.domain.FlowPayload}, which keeps big flows small and quick to read back when a node starts.
+ */
+@ApplicationScoped
+public class FlowStore {
+
+    /**
+     * A flow as it was loaded, with the version it was saved as.
+     */
+    public record Loaded(byte[] payload, long version) {
+    }
+
+    /**
+     * Saves the flow, replacing an earlier upload with the same flowId. Returns its new version.
+     */
+    public long save(CompiledFlow compiled) {
+        try {
+            return write(compiled);
+        } catch (RuntimeException e) {
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            // Two first uploads of the same flow found no row to lock, and the other one inserted it first.
+            // Now there is a row, so this time the lock holds.
+            return write(compiled);
+        }
+    }
+
+    private static long write(CompiledFlow compiled) {
+        ChatbotFlow flow = compiled.source();
+        byte[] payload = compiled.payload();
+        return QuarkusTransaction.requiringNew().call(() -> {
+            // Locked, so two uploads of the same flow never get the same version
+            StoredFlow stored = StoredFlow.findById(flow.flowId, LockModeType.PESSIMISTIC_WRITE);
+            if (stored == null) {
+                stored = new StoredFlow();
+                stored.flowId = flow.flowId;
+                stored.persist();
+            }
+            stored.version++;
+            stored.name = flow.name;
+            stored.blockCount = flow.blocks != null ? flow.blocks.size() : 0;
+            stored.payload = payload;
+            stored.updatedAt = Instant.now();
+            return stored.version;
+        });
+    }
+
+    // The insert fails on commit, so the violation comes wrapped in the transaction's exceptions
+    private static boolean isConstraintViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns null if there is no flow with this id.
+     */
+    public Loaded load(String flowId) {
+        StoredFlow stored = QuarkusTransaction.requiringNew().call(() -> StoredFlow.findById(flowId));
+        if (stored == null) {
+            return null;
+        }
+        return new Loaded(stored.payload, stored.version);
+    }
+
+    /**
+     * The latest version of a flow, without loading it. Returns null if there is no flow with this id.
+     */
+    public Long version(String flowId) {
+        return QuarkusTransaction.requiringNew().call(() -> StoredFlow.getEntityManager()
+                .createQuery("select f.version from StoredFlow f where f.flowId = ?1", Long.class)
+                .setParameter(1, flowId)
+                .getResultStream()
+                .findFirst()
+                .orElse(null));
+    }
+
+    public List<FlowSummary> list() {
+        // Without the payloads, those can be big
+        return QuarkusTransaction.requiringNew().call(() -> StoredFlow.find("order by flowId").project(FlowSummary.class).list());
+    }
+
+    /**
+     * The id of the most recently uploaded flow, or null if there is none.
+     */
+    public String latestFlowId() {
+        return QuarkusTransaction.requiringNew().call(() -> StoredFlow.getEntityManager()
+                .createQuery("select f.flowId from StoredFlow f order by f.updatedAt desc", String.class)
+                .setMaxResults(1)
+                .getResultStream()
+                .findFirst()
+                .orElse(null));
+    }
+
+    /**
+     * Returns false if there was no flow with this id.
+     */
+    public boolean delete(String flowId) {
+        return QuarkusTransaction.requiringNew().call(() -> StoredFlow.deleteById(flowId));
+    }
+
+    /**
+     * Deletes every flow. Intended for use in tests.
+     */
+    public void deleteAll() {
+        QuarkusTransaction.requiringNew().run(() -> StoredFlow.deleteAll());
+    }
+}
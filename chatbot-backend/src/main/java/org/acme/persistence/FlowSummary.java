@@ -0,0 +1,9 @@
+package org.acme.persistence;
+
+import java.time.Instant;
+
+/**
+ * A stored flow without its blocks, for listing.
+ */
+public record FlowSummary(String flowId, String name, long version, int blockCount, Instant updatedAt) {
+}
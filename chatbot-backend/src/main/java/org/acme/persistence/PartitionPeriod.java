@@ -0,0 +1,62 @@
+package org.acme.persistence;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * How much time one transcript partition covers, in UTC. A partition is named after the period it starts,
+ * conversationentry_p20250301 for a day, conversationentry_p202503 for a month.
+ */
+public enum PartitionPeriod {
+    DAY(DateTimeFormatter.BASIC_ISO_DATE),
+    MONTH(DateTimeFormatter.ofPattern("yyyyMM"));
+
+    static final String PREFIX = "conversationentry_p";
+
+    private final DateTimeFormatter suffix;
+
+    PartitionPeriod(DateTimeFormatter suffix) {
+        this.suffix = suffix;
+    }
+
+    /**
+     * The start of the period that {@code instant} falls into.
+     */
+    public LocalDate start(Instant instant) {
+        LocalDate date = LocalDate.ofInstant(instant, ZoneOffset.UTC);
+        return this == DAY ? date : date.withDayOfMonth(1);
+    }
+
+    /**
+     * The start of the period after the one starting at {@code start}.
+     */
+    public LocalDate next(LocalDate start) {
+        return this == DAY ? start.plusDays(1) : start.plusMonths(1);
+    }
+
+    public String name(LocalDate start) {
+        return PREFIX + suffix.format(start);
+    }
+
+    /**
+     * The start of the period a partition of ours covers, or null if the name isn't one of this period's partitions.
+     */
+    public LocalDate parse(String name) {
+        if (!name.startsWith(PREFIX)) {
+            return null;
+        }
+        String date = name.substring(PREFIX.length());
+        try {
+            return this == DAY ? LocalDate.parse(date, suffix) : LocalDate.parse(date + "01", DateTimeFormatter.BASIC_ISO_DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    static Instant instant(LocalDate date) {
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+}
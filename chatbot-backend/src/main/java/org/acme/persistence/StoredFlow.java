@@ -0,0 +1,31 @@
+package org.acme.persistence;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.Instant;
+
+/**
+ * An uploaded flow, encoded by {@link FlowStore}. One row per flow, the latest upload wins.
+ */
+@Entity
+public class StoredFlow extends PanacheEntityBase {
+
+    @Id
+    public String flowId;
+
+    public String name;
+    public long version; // Bumped on every upload, so all nodes agree on which version they loaded
+    public int blockCount;
+    public Instant updatedAt;
+
+    @JdbcTypeCode(SqlTypes.LONG32VARBINARY) // bytea on PostgreSQL, a big flow doesn't fit a varbinary(255)
+    public byte[] payload;
+
+    public StoredFlow() {
+        // Default constructor required by JPA
+    }
+}
@@ -0,0 +1,205 @@
+package org.acme.persistence;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Context;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind journal for conversation transcripts.
+ * Entries are queued in memory and a background thread inserts them in JDBC batches, either when a batch is full
+ * or when the flush interval has passed. The conversation itself never waits on the database.
+ * <p>
+ * Metrics: chatbot.transcript.write (one sample per batch), chatbot.transcript.queued and chatbot.transcript.dropped.
+ */
+@ApplicationScoped
+public class TranscriptJournal {
+
+    private static final Logger LOG = Logger.getLogger(TranscriptJournal.class);
+
+    @ConfigProperty(name = "chatbot.transcript.batch-size", defaultValue = "200")
+    int batchSize;
+
+    @ConfigProperty(name = "chatbot.transcript.flush-interval", defaultValue = "200ms")
+    Duration flushInterval;
+
+    @ConfigProperty(name = "chatbot.transcript.queue-capacity", defaultValue = "10000")
+    int queueCapacity;
+
+    // How long a producer may be held back when the queue is full, before the entry is dropped
+    @ConfigProperty(name = "chatbot.transcript.offer-timeout", defaultValue = "50ms")
+    Duration offerTimeout;
+
+    @Inject
+    MeterRegistry registry;
+
+    private BlockingQueue<ConversationEntry> queue;
+    private Timer writeTimer;
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong written = new AtomicLong(); // Written or given up on, either way no longer pending
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Entries appended before startup, e.g. by another bean's startup observer, wait in the queue for the flusher
+    @PostConstruct
+    void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        writeTimer = Timer.builder("chatbot.transcript.write")
+                .description("Inserting one batch of transcript entries, transaction included")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("chatbot.transcript.queued", queue, BlockingQueue::size)
+                .description("Transcript entries waiting to be written")
+                .register(registry);
+        FunctionCounter.builder("chatbot.transcript.dropped", dropped, AtomicLong::get)
+                .description("Transcript entries dropped because the queue stayed full")
+                .register(registry);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        running = true;
+        flusher = new Thread(this::runFlusher, "transcript-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Queues an entry for writing. Returns false if the entry had to be dropped because the queue stayed full.
+     */
+    public boolean append(ConversationEntry entry) {
+        if (queue.offer(entry)) {
+            appended.incrementAndGet();
+            return true;
+        }
+        // The database is falling behind. Hold the producer back for a moment, but never block an I/O thread.
+        if (!Context.isOnEventLoopThread()) {
+            try {
+                if (queue.offer(entry, offerTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                    appended.incrementAndGet();
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long total = dropped.incrementAndGet();
+        LOG.warnf("Queue full, dropped transcript entry for conversation %s (%d dropped so far)", entry.conversationId, total);
+        return false;
+    }
+
+    /**
+     * Writes everything appended so far and waits until it is in the database.
+     */
+    public void flush() {
+        long target = appended.get();
+        // While the flusher runs it is the only writer, a second one would interleave the ids of two batches
+        if (flusher == null || !flusher.isAlive()) {
+            List<ConversationEntry> batch = new ArrayList<>();
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        synchronized (written) {
+            while (written.get() < target) {
+                try {
+                    written.wait(flushInterval.toMillis() + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    private void runFlusher() {
+        List<ConversationEntry> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                ConversationEntry first = queue.poll(flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Fill the batch until it is full or the flush interval has passed, whichever comes first
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    ConversationEntry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                // Shutting down, whatever is left gets written by onStop()
+                write(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<ConversationEntry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            // One transaction per batch, so Hibernate can send the inserts as JDBC batches
+            QuarkusTransaction.requiringNew().run(() -> ConversationEntry.persist(batch));
+        } catch (Exception e) {
+            LOG.errorf(e, "Failed to write %d transcript entries", batch.size());
+        } finally {
+            writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            synchronized (written) {
+                written.addAndGet(batch.size());
+                written.notifyAll();
+            }
+        }
+    }
+}
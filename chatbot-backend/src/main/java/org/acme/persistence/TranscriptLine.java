@@ -0,0 +1,13 @@
+package org.acme.persistence;
+
+import java.time.Instant;
+
+/**
+ * One entry of a transcript as the transcript API returns it.
+ */
+public record TranscriptLine(Long id, String conversationId, Instant timestamp, String actor, String message, String blockId) {
+
+    static TranscriptLine of(ConversationEntry entry) {
+        return new TranscriptLine(entry.id, entry.conversationId, entry.timestamp, entry.actor, entry.message, entry.blockId);
+    }
+}
@@ -0,0 +1,339 @@
+package org.acme.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the transcript table partitioned by time on PostgreSQL, so inserts and queries only ever touch
+ * a few recent partitions however much history there is.
+ * <p>
+ * Every maintenance interval, one node (whichever gets the advisory lock) creates the partitions for the next periods,
+ * compacts partitions older than rollup.after into one {@link TranscriptRollup} per conversation, and drops partitions
+ * older than the retention. A partition is dropped as a whole, there are no row DELETEs on the transcript table.
+ * <p>
+ * Metrics: chatbot.transcript.partitions, chatbot.transcript.partitions.dropped, chatbot.transcript.rollup.conversations
+ * and chatbot.transcript.maintenance.
+ */
+@ApplicationScoped
+public class TranscriptPartitions {
+
+    private static final Logger LOG = Logger.getLogger(TranscriptPartitions.class);
+
+    // Any number, as long as nothing else in the database uses it for an advisory lock
+    private static final long MAINTENANCE_LOCK = 0x7472616e73L;
+    private static final String DEFAULT_PARTITION = "conversationentry_default";
+
+    @ConfigProperty(name = "chatbot.transcript.partitioning.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "chatbot.transcript.partitioning.period", defaultValue = "day")
+    PartitionPeriod period;
+
+    // Partitions created ahead of time, so an insert never finds its partition missing
+    @ConfigProperty(name = "chatbot.transcript.partitioning.ahead", defaultValue = "3")
+    int ahead;
+
+    @ConfigProperty(name = "chatbot.transcript.partitioning.maintenance-interval", defaultValue = "1h")
+    Duration maintenanceInterval;
+
+    // Compacting or dropping a big partition holds one transaction until it is done
+    @ConfigProperty(name = "chatbot.transcript.partitioning.maintenance-timeout", defaultValue = "30m")
+    Duration maintenanceTimeout;
+
+    @ConfigProperty(name = "chatbot.transcript.retention")
+    Optional<Duration> retention;
+
+    @ConfigProperty(name = "chatbot.transcript.rollup.enabled", defaultValue = "false")
+    boolean rollupEnabled;
+
+    @ConfigProperty(name = "chatbot.transcript.rollup.after", defaultValue = "30d")
+    Duration rollupAfter;
+
+    @ConfigProperty(name = "quarkus.datasource.db-kind")
+    String dbKind;
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    SessionFactory sessionFactory;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final AtomicInteger partitions = new AtomicInteger();
+    private Counter dropped;
+    private Counter rolledUp;
+    private Timer maintenanceTimer;
+    private ScheduledExecutorService maintainer;
+
+    /**
+     * What one maintenance run does. {@code compact} partitions are rolled up and then dropped, {@code drop} ones just dropped.
+     */
+    record Plan(List<LocalDate> create, List<String> compact, List<String> drop) {
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (!"postgresql".equals(dbKind)) {
+            LOG.warnf("chatbot.transcript.partitioning needs PostgreSQL, not %s; transcripts stay in one table", dbKind);
+            return;
+        }
+        Gauge.builder("chatbot.transcript.partitions", partitions, AtomicInteger::get)
+                .description("Time partitions of the transcript table, as of the last maintenance")
+                .register(registry);
+        dropped = Counter.builder("chatbot.transcript.partitions.dropped")
+                .description("Transcript partitions dropped by retention or after they were rolled up")
+                .register(registry);
+        rolledUp = Counter.builder("chatbot.transcript.rollup.conversations")
+                .description("Conversations whose old entries were compacted into their rollup")
+                .register(registry);
+        maintenanceTimer = Timer.builder("chatbot.transcript.maintenance")
+                .description("One run of transcript partition maintenance")
+                .register(registry);
+        if (!QuarkusTransaction.requiringNew().call(this::ensurePartitioned)) {
+            return;
+        }
+        maintainer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "transcript-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The first run right away, so today's partition exists before the first conversation
+        maintainer.scheduleWithFixedDelay(this::maintain, 0, maintenanceInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (maintainer != null) {
+            maintainer.shutdownNow();
+        }
+    }
+
+    // Hibernate creates a plain table on a new database. While it is still empty, it is swapped for a partitioned one.
+    private boolean ensurePartitioned() {
+        lock();
+        Object kind = entityManager.createNativeQuery("select relkind from pg_class where oid = to_regclass('conversationentry')")
+                .getResultStream().findFirst().orElse(null);
+        if (kind != null && "p".equals(kind.toString())) {
+            return true;
+        }
+        if (kind == null) {
+            LOG.error("There is no conversationentry table to partition, transcripts aren't partitioned");
+            return false;
+        }
+        if (!entityManager.createNativeQuery("select 1 from conversationentry limit 1").getResultList().isEmpty()) {
+            LOG.error("The conversationentry table has rows and isn't partitioned, transcripts stay in one table. "
+                    + "See the README for how to migrate it.");
+            return false;
+        }
+        execute("create table conversationentry_partitioned (like conversationentry including defaults) partition by range (timestamp)");
+        execute("alter table conversationentry_partitioned add primary key (id, timestamp)");
+        execute("drop table conversationentry");
+        execute("alter table conversationentry_partitioned rename to conversationentry");
+        // The same indexes as on ConversationEntry, created on every partition
+        execute("create index if not exists conversationentry_conversation_time on conversationentry (conversationId, timestamp, id)");
+        execute("create index if not exists conversationentry_time on conversationentry (timestamp, id)");
+        // Catches entries outside every partition, like ones with a clock far off
+        execute("create table if not exists " + DEFAULT_PARTITION + " partition of conversationentry default");
+        LOG.info("Transcripts are now partitioned by " + period.name().toLowerCase());
+        return true;
+    }
+
+    /**
+     * One maintenance run. Errors are logged and the next run tries again.
+     */
+    void maintain() {
+        long start = System.nanoTime();
+        try {
+            Plan plan = QuarkusTransaction.requiringNew().call(() -> {
+                if (!tryLock()) {
+                    return null; // Another node is at it
+                }
+                // Each step below takes the lock again in its own transaction and is a no-op when it was done already,
+                // so a node that starts its run late can't redo another's
+                return plan(period, Instant.now(), existing(), ahead, retention, rollupEnabled ? Optional.of(rollupAfter) : Optional.empty());
+            });
+            if (plan == null) {
+                return;
+            }
+            for (LocalDate date : plan.create()) {
+                try {
+                    QuarkusTransaction.requiringNew().run(() -> create(date));
+                } catch (RuntimeException e) {
+                    // Fails when the default partition already has rows of that period, which then just stay there
+                    LOG.warnf(e, "Could not create transcript partition %s", period.name(date));
+                }
+            }
+            for (String partition : plan.compact()) {
+                QuarkusTransaction.requiringNew().timeout((int) maintenanceTimeout.toSeconds()).run(() -> compact(partition));
+            }
+            for (String partition : plan.drop()) {
+                QuarkusTransaction.requiringNew().timeout((int) maintenanceTimeout.toSeconds()).run(() -> drop(partition));
+            }
+            retention.ifPresent(keep -> QuarkusTransaction.requiringNew().run(() ->
+                    TranscriptRollup.delete("lastAt < ?1", Instant.now().minus(keep))));
+            partitions.set(QuarkusTransaction.requiringNew().call(() -> existing().size()));
+        } catch (RuntimeException e) {
+            LOG.errorf(e, "Transcript partition maintenance failed, retrying in %s", maintenanceInterval);
+        } finally {
+            maintenanceTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Works out which partitions to create, compact and drop. Only looks at partitions named by {@code period}.
+     */
+    static Plan plan(PartitionPeriod period, Instant now, List<String> existing, int ahead,
+                     Optional<Duration> retention, Optional<Duration> rollupAfter) {
+        List<LocalDate> create = new ArrayList<>();
+        LocalDate date = period.start(now);
+        for (int i = 0; i <= ahead; i++) {
+            if (!existing.contains(period.name(date))) {
+                create.add(date);
+            }
+            date = period.next(date);
+        }
+        List<String> compact = new ArrayList<>();
+        List<String> drop = new ArrayList<>();
+        for (String name : existing) {
+            LocalDate start = period.parse(name);
+            if (start == null) {
+                continue;
+            }
+            // A partition goes once all of it is past the cutoff
+            Instant end = PartitionPeriod.instant(period.next(start));
+            if (retention.isPresent() && !end.isAfter(now.minus(retention.get()))) {
+                drop.add(name);
+            } else if (rollupAfter.isPresent() && !end.isAfter(now.minus(rollupAfter.get()))) {
+                compact.add(name);
+            }
+        }
+        compact.sort(null); // Oldest first, so each rollup only ever gets newer entries appended
+        return new Plan(create, compact, drop);
+    }
+
+    private List<String> existing() {
+        List<?> names = entityManager.createNativeQuery("select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid "
+                + "where i.inhparent = to_regclass('conversationentry')").getResultList();
+        return names.stream().map(Object::toString).toList();
+    }
+
+    private void create(LocalDate start) {
+        lock();
+        Instant from = PartitionPeriod.instant(start);
+        Instant to = PartitionPeriod.instant(period.next(start));
+        execute("create table if not exists " + period.name(start) + " partition of conversationentry for values from ('"
+                + from + "') to ('" + to + "')");
+        LOG.infof("Created transcript partition %s", period.name(start));
+    }
+
+    // Reads the partition a conversation at a time and appends each conversation's entries to its rollup, then drops it
+    private void compact(String partition) {
+        lock();
+        if (!exists(partition)) {
+            return;
+        }
+        LocalDate start = period.parse(partition);
+        int conversations = 0;
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             ScrollableResults<ConversationEntry> rows = session.createSelectionQuery(
+                             "from ConversationEntry where timestamp >= :from and timestamp < :to order by conversationId, timestamp, id",
+                             ConversationEntry.class)
+                     .setParameter("from", PartitionPeriod.instant(start))
+                     .setParameter("to", PartitionPeriod.instant(period.next(start)))
+                     .setFetchSize(1000)
+                     .setReadOnly(true)
+                     .scroll(ScrollMode.FORWARD_ONLY)) {
+            String conversationId = null;
+            List<TranscriptLine> lines = new ArrayList<>();
+            while (rows.next()) {
+                ConversationEntry entry = rows.get();
+                if (conversationId != null && !conversationId.equals(entry.conversationId)) {
+                    rollUp(conversationId, lines);
+                    lines.clear();
+                    if (++conversations % 500 == 0) {
+                        entityManager.flush();
+                        entityManager.clear();
+                    }
+                }
+                conversationId = entry.conversationId;
+                lines.add(TranscriptLine.of(entry));
+            }
+            if (conversationId != null) {
+                rollUp(conversationId, lines);
+                conversations++;
+            }
+        }
+        entityManager.flush();
+        drop(partition);
+        rolledUp.increment(conversations);
+        LOG.infof("Rolled up %d conversations from transcript partition %s", conversations, partition);
+    }
+
+    private void rollUp(String conversationId, List<TranscriptLine> lines) {
+        TranscriptRollup rollup = TranscriptRollup.findById(conversationId);
+        if (rollup == null) {
+            rollup = new TranscriptRollup(conversationId);
+            rollup.append(lines);
+            rollup.persist();
+        } else {
+            rollup.append(lines);
+        }
+    }
+
+    private void drop(String partition) {
+        lock();
+        if (!exists(partition)) {
+            return;
+        }
+        execute("drop table " + partition);
+        dropped.increment();
+        LOG.infof("Dropped transcript partition %s", partition);
+    }
+
+    private boolean exists(String table) {
+        return entityManager.createNativeQuery("select to_regclass(?1) is not null").setParameter(1, table).getSingleResult()
+                .equals(Boolean.TRUE);
+    }
+
+    private void execute(String sql) {
+        entityManager.createNativeQuery(sql).executeUpdate();
+    }
+
+    private void lock() {
+        entityManager.createNativeQuery("select pg_advisory_xact_lock(?1)").setParameter(1, MAINTENANCE_LOCK).getSingleResult();
+    }
+
+    private boolean tryLock() {
+        return Boolean.TRUE.equals(entityManager.createNativeQuery("select pg_try_advisory_xact_lock(?1)")
+                .setParameter(1, MAINTENANCE_LOCK).getSingleResult());
+    }
+}
@@ -0,0 +1,132 @@
+package org.acme.persistence;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.panache.common.Page;
+import io.quarkus.panache.common.Sort;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.SelectionQuery;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads transcripts back, in (timestamp, id) order, which the indexes on {@link ConversationEntry} serve.
+ * <p>
+ * Pages use keyset pagination: the cursor is the last entry of the previous page, so page 10,000 costs as much as page 1.
+ * Exports stream through a forward-only JDBC cursor on a stateless session, so however many rows there are,
+ * only one fetch-size batch of them is in memory at a time.
+ */
+@ApplicationScoped
+public class TranscriptReader {
+
+    @ConfigProperty(name = "chatbot.transcript.export.fetch-size", defaultValue = "1000")
+    int fetchSize;
+
+    // A big export may take a while, but it holds a connection and a transaction all along
+    @ConfigProperty(name = "chatbot.transcript.export.timeout", defaultValue = "30m")
+    Duration exportTimeout;
+
+    @Inject
+    SessionFactory sessionFactory;
+
+    /**
+     * A page of a transcript, and the cursor for the next one (null on the last page).
+     */
+    public record TranscriptPage(List<TranscriptLine> entries, String next) {
+    }
+
+    /**
+     * Up to {@code limit} entries of one conversation, following the entry the cursor points at (from the start for null).
+     * Throws an IllegalArgumentException for a cursor that isn't one of ours.
+     */
+    public TranscriptPage page(String conversationId, String cursor, int limit) {
+        Cursor after = cursor != null ? Cursor.decode(cursor) : null;
+        List<ConversationEntry> entries = QuarkusTransaction.requiringNew().call(() -> {
+            Sort order = Sort.by("timestamp").and("id");
+            // One more than asked for tells us whether there is a next page
+            Page page = Page.ofSize(limit + 1);
+            return after == null
+                    ? ConversationEntry.<ConversationEntry>find("conversationId = ?1", order, conversationId).page(page).list()
+                    : ConversationEntry.<ConversationEntry>find("conversationId = ?1 and (timestamp, id) > (?2, ?3)", order,
+                    conversationId, after.timestamp(), after.id()).page(page).list();
+        });
+        boolean more = entries.size() > limit;
+        List<TranscriptLine> lines = new ArrayList<>(Math.min(entries.size(), limit));
+        for (int i = 0; i < entries.size() && i < limit; i++) {
+            lines.add(TranscriptLine.of(entries.get(i)));
+        }
+        String next = more ? new Cursor(lines.get(limit - 1).timestamp(), lines.get(limit - 1).id()).encode() : null;
+        return new TranscriptPage(lines, next);
+    }
+
+    /**
+     * Hands every entry from {@code from} (inclusive) to {@code to} (exclusive) to the consumer, in order,
+     * only those of one conversation if {@code conversationId} isn't null. Returns how many there were.
+     */
+    public long export(Instant from, Instant to, String conversationId, Consumer<TranscriptLine> consumer) {
+        return QuarkusTransaction.requiringNew().timeout((int) exportTimeout.toSeconds()).call(() -> {
+            // Nothing is kept per row in a stateless session, and the cursor only pulls fetch-size rows at a time
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                String query = "from ConversationEntry where timestamp >= :from and timestamp < :to"
+                        + (conversationId != null ? " and conversationId = :conversationId" : "")
+                        + " order by timestamp, id";
+                SelectionQuery<ConversationEntry> select = session.createSelectionQuery(query, ConversationEntry.class)
+                        .setParameter("from", from)
+                        .setParameter("to", to)
+                        .setFetchSize(fetchSize)
+                        .setReadOnly(true);
+                if (conversationId != null) {
+                    select.setParameter("conversationId", conversationId);
+                }
+                long count = 0;
+                try (ScrollableResults<ConversationEntry> rows = select.scroll(ScrollMode.FORWARD_ONLY)) {
+                    while (rows.next()) {
+                        consumer.accept(TranscriptLine.of(rows.get()));
+                        count++;
+                    }
+                }
+                return count;
+            }
+        });
+    }
+
+    /**
+     * The rolled-up entries of a conversation, the ones compacted out of the transcript table
+     * (see {@link TranscriptPartitions}). Null if nothing of it was rolled up.
+     */
+    public List<TranscriptLine> archive(String conversationId) {
+        TranscriptRollup rollup = QuarkusTransaction.requiringNew().call(() -> TranscriptRollup.findById(conversationId));
+        return rollup != null ? rollup.entries() : null;
+    }
+
+    // Where a page ended. Opaque to clients, it is only ever handed back to us.
+    record Cursor(Instant timestamp, long id) {
+
+        String encode() {
+            String raw = timestamp + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                return new Cursor(Instant.parse(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor.");
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.acme.persistence;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compacted transcript of a conversation whose entries were older than chatbot.transcript.rollup.after:
+ * one row per conversation, the entries as gzipped NDJSON. See {@link TranscriptPartitions}.
+ */
+@Entity
+@Table(indexes = @Index(name = "transcriptrollup_last", columnList = "lastAt"))
+public class TranscriptRollup extends PanacheEntityBase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Id
+    public String conversationId;
+
+    public Instant firstAt;
+    public Instant lastAt; // Retention drops the rollups that ended before the cutoff
+    public int entryCount;
+
+    @JdbcTypeCode(SqlTypes.LONG32VARBINARY) // bytea on PostgreSQL
+    public byte[] payload;
+
+    public TranscriptRollup() {
+        // Default constructor required by JPA
+    }
+
+    public TranscriptRollup(String conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    /**
+     * The entries, oldest first.
+     */
+    public List<TranscriptLine> entries() {
+        if (payload == null) {
+            return new ArrayList<>();
+        }
+        List<TranscriptLine> lines = new ArrayList<>(entryCount);
+        try (MappingIterator<TranscriptLine> reader = MAPPER.readerFor(TranscriptLine.class)
+                .readValues(new GZIPInputStream(new ByteArrayInputStream(payload)))) {
+            while (reader.hasNext()) {
+                lines.add(reader.next());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the rollup of conversation " + conversationId, e);
+        }
+        return lines;
+    }
+
+    /**
+     * Adds entries that come after the ones already rolled up.
+     */
+    public void append(List<TranscriptLine> newer) {
+        if (newer.isEmpty()) {
+            return;
+        }
+        List<TranscriptLine> all = entries();
+        all.addAll(newer);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SequenceWriter writer = MAPPER.writer().withRootValueSeparator("\n").writeValues(new GZIPOutputStream(bytes))) {
+            writer.writeAll(all);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the rollup of conversation " + conversationId, e);
+        }
+        payload = bytes.toByteArray();
+        entryCount = all.size();
+        firstAt = all.get(0).timestamp();
+        lastAt = all.get(all.size() - 1).timestamp();
+    }
+}
@@ -1,149 +1,392 @@
 package org.acme.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
 import jakarta.websocket.Session;
-import org.acme.domain.Block;
-import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledBlock;
+import org.acme.domain.CompiledFlow;
 import org.acme.persistence.ConversationEntry;
-import org.acme.service.gemini.GeminiService;
+import org.acme.persistence.TranscriptJournal;
+import org.acme.service.block.BlockContext;
+import org.acme.service.block.BlockHandler;
+import org.acme.service.block.BlockHandlers;
+import org.acme.service.block.Step;
+import org.acme.service.outbound.OutboundChannels;
+import org.acme.service.outbound.Reply;
+import org.acme.service.state.SessionStateStore;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
-import java.time.Duration; // <-- NEW IMPORT
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * The conversation engine.
+ * <p>
+ * Replies go out through {@link OutboundChannels}.
+ * Metrics: chatbot.turn (a user message until the bot has answered), chatbot.turn.step-budget-exceeded and chatbot.sessions.waiting{flow,block} (sessions waiting for input at each block).
+ * Conversation state is kept per flow: the same conversation id with another flow is another conversation.
+ * Every turn is also a "chatbot.turn" trace span, tagged with the conversation id, the block and the detected intent.
+ */
 @ApplicationScoped
 public class ChatbotService {
 
+    private static final Logger LOG = Logger.getLogger(ChatbotService.class);
+
+    /**
+     * Session user property holding the id of the conversation the connection belongs to.
+     * Without it, the conversation is identified by the WebSocket session id.
+     */
+    public static final String CONVERSATION_ID = "chatbot.conversation-id";
+
+    /**
+     * Session user property holding the id of the flow the connection asked for. Without it, the default flow is used.
+     */
+    public static final String FLOW_ID = "chatbot.flow-id";
+
+    // Session user property holding the flow version the connection is pinned to
+    private static final String PINNED_FLOW = "chatbot.pinned-flow";
+
     @Inject
     ConfigService configService;
 
     @Inject
-    GeminiService geminiService;
+    TranscriptJournal transcriptJournal;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    Tracer tracer;
+
+    @Inject
+    SessionStateStore sessionStateStore;
+
+    @Inject
+    BlockHandlers blockHandlers;
+
+    @Inject
+    OutboundChannels outboundChannels;
 
-    private final Map<String, String> userStates = new ConcurrentHashMap<>();
+    // Blocks one turn may run before it has to wait for the user, a flow that loops without asking anything is stopped there
+    @ConfigProperty(name = "chatbot.engine.max-steps-per-turn", defaultValue = "1000")
+    int maxStepsPerTurn;
+
+    private final Map<WaitingAt, Waiting> waitingByBlock = new ConcurrentHashMap<>();
+    private Timer turnTimer;
+    private Counter stepBudgetExceeded;
+
+    @PostConstruct
+    void init() {
+        turnTimer = Timer.builder("chatbot.turn")
+                .description("From a user message arriving until the bot has answered it")
+                .publishPercentileHistogram()
+                .register(registry);
+        stepBudgetExceeded = Counter.builder("chatbot.turn.step-budget-exceeded")
+                .description("Turns stopped after chatbot.engine.max-steps-per-turn blocks without waiting for the user")
+                .register(registry);
+        sessionStateStore.onEvicted((key, blockId) -> waiting(SessionStateStore.flowIdOf(key), blockId, -1));
+    }
 
-    @Transactional
     public void handleNewConnection(Session session) {
-        ChatbotFlow flow = configService.getFlow();
+        // The connection stays on this version of the flow, whatever is uploaded while it is open
+        String flowId = flowId(session);
+        CompiledFlow flow = configService.pin(flowId);
         if (flow == null) {
-            sendMessage(session, "Chatbot not configured. Please upload a flow.", null);
+            sendMessage(session, flowId == null ? "Chatbot not configured. Please upload a flow." : "Unknown chatbot flow: " + flowId, null);
             return;
         }
-        System.out.println("New connection: " + session.getId() + ". Starting flow.");
-        processBlock(session, flow.startBlockId);
+        CompiledFlow previouslyPinned = (CompiledFlow) session.getUserProperties().put(PINNED_FLOW, flow);
+        if (previouslyPinned != null) {
+            // Restarted after losing its state, it starts over on the latest version
+            configService.release(previouslyPinned);
+        }
+        String key = stateKey(flow, session);
+        String resumeAt = sessionStateStore.get(key); // Another connection has it open already
+        if (resumeAt == null && resumable(session)) {
+            resumeAt = reattach(key);
+        }
+        if (resumeAt != null) {
+            CompiledBlock block = flow.block(resumeAt);
+            if (block != null && blockHandlers.forType(block.typeName()) != null) {
+                LOG.debugf("Connection %s resumes conversation %s at block '%s'", session.getId(), key, resumeAt);
+                return;
+            }
+            // The flow was changed since, and the block is gone or nothing handles it anymore
+        }
+        LOG.debugf("New connection: %s. Starting flow.", session.getId());
+        processBlock(session, flow.startBlockId());
     }
 
     public void handleConnectionClose(Session session) {
-        userStates.remove(session.getId());
-        System.out.println("Connection closed: " + session.getId());
+        // A connection without a pinned flow never started a conversation
+        CompiledFlow pinned = (CompiledFlow) session.getUserProperties().remove(PINNED_FLOW);
+        if (pinned != null) {
+            String waitingAt = sessionStateStore.detach(stateKey(pinned, session));
+            if (waitingAt != null) {
+                waiting(pinned.flowId(), waitingAt, -1);
+            }
+            configService.release(pinned);
+        }
+        outboundChannels.close(session);
+        LOG.debugf("Connection closed: %s", session.getId());
+    }
+
+    private String reattach(String key) {
+        String blockId = sessionStateStore.attach(key);
+        if (blockId != null) {
+            waiting(SessionStateStore.flowIdOf(key), blockId, 1);
+        }
+        return blockId;
+    }
+
+    // The version the connection is pinned to, or the latest one for a connection that didn't start a conversation
+    private CompiledFlow flowOf(Session session) {
+        CompiledFlow pinned = (CompiledFlow) session.getUserProperties().get(PINNED_FLOW);
+        return pinned != null ? pinned : configService.getCompiledFlow(flowId(session));
     }
 
-    @Transactional
-    public void handleUserMessage(Session session, String userMessage) {
-        ChatbotFlow flow = configService.getFlow();
-        String currentBlockId = userStates.get(session.getId());
+    private static String flowId(Session session) {
+        return (String) session.getUserProperties().get(FLOW_ID);
+    }
+
+    public static String conversationId(Session session) {
+        Object conversationId = session.getUserProperties().get(CONVERSATION_ID);
+        return conversationId != null ? (String) conversationId : session.getId();
+    }
+
+    // Only a conversation with an id from the client can be resumed, the session id is never seen again
+    private static boolean resumable(Session session) {
+        return session.getUserProperties().containsKey(CONVERSATION_ID);
+    }
 
-        ConversationEntry userEntry = new ConversationEntry(session.getId(), "USER", userMessage, currentBlockId);
-        userEntry.persist();
+    private static String stateKey(CompiledFlow flow, Session session) {
+        return SessionStateStore.key(flow.flowId(), conversationId(session));
+    }
+
+    /**
+     * Handles a message from the user. The returned Uni completes once the bot has answered.
+     * No thread is held while we wait for the intent detection, so a slow LLM call only costs a pending Uni.
+     */
+    public Uni<Void> handleUserMessage(Session session, String userMessage) {
+        return Uni.createFrom().deferred(() -> {
+            long start = System.nanoTime();
+            Span span = tracer.spanBuilder("chatbot.turn")
+                    .setAttribute("chatbot.conversation.id", conversationId(session))
+                    .startSpan();
+
+            Uni<Void> turn = Uni.createFrom().item(() -> beginTurn(session, userMessage))
+                    .chain(currentBlock -> {
+                        if (currentBlock == null) {
+                            // The turn was already answered (e.g. with an error), nothing to hand to the block
+                            return Uni.createFrom().voidItem();
+                        }
+                        span.setAttribute("chatbot.block.id", currentBlock.id());
+                        Turn replies = new Turn(conversationId(session));
+                        // The rest of the turn never blocks, so it simply continues on whichever thread completed the call
+                        return blockHandlers.forType(currentBlock.typeName()).onInput(currentBlock, userMessage, replies)
+                                .invoke(step -> completeTurn(session, currentBlock, step, replies))
+                                .replaceWithVoid();
+                    });
+
+            return subscribedInSpan(span, turn)
+                    .onItemOrFailure().invoke((ignored, failure) -> {
+                        if (failure != null) {
+                            span.recordException(failure);
+                            span.setStatus(StatusCode.ERROR);
+                        }
+                        span.end();
+                        turnTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    });
+        });
+    }
+
+    // Whatever the turn starts while it is being subscribed, like the request to Gemini, becomes a child of the turn's span
+    private static <T> Uni<T> subscribedInSpan(Span span, Uni<T> uni) {
+        return Uni.createFrom().emitter(emitter -> {
+            try (Scope ignored = span.makeCurrent()) {
+                Cancellable subscription = uni.subscribe().with(emitter::complete, emitter::fail);
+                emitter.onTermination(subscription::cancel);
+            }
+        });
+    }
+
+    /**
+     * First half of a turn: records the user's message and finds the block that is waiting for it.
+     * Returns null if there is no block to hand the message to.
+     */
+    CompiledBlock beginTurn(Session session, String userMessage) {
+        CompiledFlow flow = flowOf(session);
+        String conversationId = conversationId(session);
+        String currentBlockId = null;
+        if (flow != null) {
+            String key = stateKey(flow, session);
+            currentBlockId = sessionStateStore.get(key);
+            if (currentBlockId == null && resumable(session)) {
+                // Evicted while the user was idle. A durable store still knows where the conversation was.
+                currentBlockId = reattach(key);
+            }
+        }
+
+        transcriptJournal.append(new ConversationEntry(conversationId, "USER", userMessage, currentBlockId));
 
         if (currentBlockId == null) {
             sendMessage(session, "Error: No current state found for your session. Restarting.", null);
             handleNewConnection(session);
-            return;
+            return null;
         }
 
-        Optional<Block> currentBlockOpt = findBlockById(flow, currentBlockId);
-        if (currentBlockOpt.isEmpty() || !"INTENT_DETECTION".equals(currentBlockOpt.get().type)) {
+        CompiledBlock currentBlock = flow != null ? flow.block(currentBlockId) : null;
+        if (currentBlock == null || blockHandlers.forType(currentBlock.typeName()) == null) {
             sendMessage(session, "Error: I was not expecting a message right now.", currentBlockId);
+            return null;
+        }
+        return currentBlock;
+    }
+
+    /**
+     * Second half of a turn: goes where the waiting block's handler sent the conversation, or keeps waiting there.
+     */
+    void completeTurn(Session session, CompiledBlock currentBlock, Step step, Turn turn) {
+        if (step.waitForInput()) {
+            LOG.debugf("Still waiting for user input at block '%s' for session: %s", currentBlock.id(), session.getId());
+            send(session, turn);
             return;
         }
+        run(session, turn, step.nextBlockId());
+    }
 
-        Block currentBlock = currentBlockOpt.get();
-        List<String> possibleIntents = getIntentsFromBlock(currentBlock);
+    /**
+     * The core logic engine: runs the flow from the given block until it waits for the user or ends.
+     * Blocks are run in a loop, at most max-steps-per-turn of them, so a long chain of blocks costs no stack and a loop is cut short.
+     * The messages are journaled and handed to the outbound channel together once the blocks have run.
+     */
+    public void processBlock(Session session, String blockId) {
+        run(session, new Turn(conversationId(session)), blockId);
+    }
 
-        // Call our Gemini service.
-        String matchedIntent = geminiService.determineIntent(userMessage, possibleIntents)
-                .await().atMost(Duration.ofSeconds(15)); // Block for up to 15 seconds.
+    private void run(Session session, Turn turn, String blockId) {
+        CompiledFlow flow = flowOf(session);
+        String nextBlockId = blockId;
+        int steps = 0;
+        while (nextBlockId != null) {
+            if (++steps > maxStepsPerTurn) {
+                LOG.warnf("Conversation %s ran %d blocks without waiting for the user, stopped before block '%s'",
+                        turn.conversationId(), maxStepsPerTurn, nextBlockId);
+                stepBudgetExceeded.increment();
+                turn.send("Error: The flow runs too long without waiting for you. Stopping here.", nextBlockId);
+                break;
+            }
+            CompiledBlock block = flow != null ? flow.block(nextBlockId) : null;
+            if (block == null) {
+                turn.send("Error: Flow is corrupted. Cannot find block with ID: " + nextBlockId, nextBlockId);
+                break;
+            }
+            BlockHandler handler = blockHandlers.forType(block.typeName());
+            if (handler == null) {
+                turn.send("Error: Unknown block type '" + block.typeName() + "'.", block.id());
+                break;
+            }
+            Step step = handler.execute(block, turn);
+            if (step.waitForInput()) {
+                waitAt(session, flow, block);
+                break;
+            }
+            nextBlockId = step.nextBlockId();
+        }
+        if (nextBlockId == null) {
+            LOG.debugf("Flow ended for session: %s", session.getId());
+        }
+        send(session, turn);
+    }
 
-        System.out.println("User '" + session.getId() + "' said '" + userMessage + "'. Gemini detected intent: " + matchedIntent);
-        String nextBlockId = mapIntentToBlockId(currentBlock, matchedIntent);
-        processBlock(session, nextBlockId);
+    private void send(Session session, Turn turn) {
+        String conversationId = conversationId(session);
+        for (Reply reply : turn.replies) {
+            transcriptJournal.append(new ConversationEntry(conversationId, "BOT", reply.text(), reply.blockId()));
+        }
+        outboundChannels.send(session, turn.replies);
     }
 
-    // This is the core logic engine. It processes a block and decides what to do next.
-    @Transactional
-    public void processBlock(Session session, String blockId) {
-        if (blockId == null) {
-            System.out.println("Flow ended for session: " + session.getId());
-            return;
+    private void waitAt(Session session, CompiledFlow flow, CompiledBlock block) {
+        String previous = sessionStateStore.put(stateKey(flow, session), block.id(), resumable(session));
+        if (!block.id().equals(previous)) {
+            waiting(flow.flowId(), block.id(), 1);
+            if (previous != null) {
+                waiting(flow.flowId(), previous, -1);
+            }
         }
+        LOG.debugf("Waiting for user input at block '%s' for session: %s", block.id(), session.getId());
+    }
 
-        ChatbotFlow flow = configService.getFlow();
-        Optional<Block> blockOpt = findBlockById(flow, blockId);
+    // The messages the blocks of one turn produced, in order
+    static final class Turn implements BlockContext {
 
-        if (blockOpt.isEmpty()) {
-            sendMessage(session, "Error: Flow is corrupted. Cannot find block with ID: " + blockId, blockId);
-            return;
-        }
+        private final String conversationId;
+        final List<Reply> replies = new ArrayList<>(4);
 
-        Block block = blockOpt.get();
-        switch (block.type) {
-            case "MESSAGE":
-                String message = block.data.get("text").asText();
-                sendMessage(session, message, block.id);
-                processBlock(session, block.nextBlockId);
-                break;
+        Turn(String conversationId) {
+            this.conversationId = conversationId;
+        }
 
-            case "INTENT_DETECTION":
-                userStates.put(session.getId(), block.id);
-                System.out.println("Waiting for user input at block '" + block.id + "' for session: " + session.getId());
-                break;
+        @Override
+        public String conversationId() {
+            return conversationId;
+        }
 
-            default:
-                sendMessage(session, "Error: Unknown block type '" + block.type + "'.", block.id);
-                break;
+        @Override
+        public void send(String text, String blockId) {
+            replies.add(new Reply(text, blockId));
         }
     }
 
     // UTILITY METHODS
 
-    private Optional<Block> findBlockById(ChatbotFlow flow, String blockId) {
-        return flow.blocks.stream().filter(b -> b.id.equals(blockId)).findFirst();
+    private record WaitingAt(String flowId, String blockId) {
     }
 
-    private List<String> getIntentsFromBlock(Block block) {
-        List<String> intents = new ArrayList<>();
-        JsonNode intentsNode = block.data.get("intents");
-        if (intentsNode != null && intentsNode.isArray()) {
-            for (JsonNode node : intentsNode) {
-                intents.add(node.asText());
-            }
-        }
-        return intents;
+    private static final class Waiting {
+        volatile int sessions;
+        Gauge gauge;
     }
 
-    private String mapIntentToBlockId(Block block, String intent) {
-        JsonNode mappingNode = block.data.get("mappings").get(intent);
-        if (mappingNode != null) {
-            return mappingNode.asText();
-        }
-        return block.data.get("fallbackBlockId").asText();
+    // A block has a gauge only while sessions wait at it, so deleted or unused flows and blocks leave no series behind
+    private void waiting(String flowId, String blockId, int delta) {
+        waitingByBlock.compute(new WaitingAt(flowId, blockId), (at, waiting) -> {
+            if (waiting == null) {
+                waiting = new Waiting();
+                waiting.gauge = Gauge.builder("chatbot.sessions.waiting", waiting, w -> w.sessions)
+                        .description("Sessions waiting for the user's message at a block")
+                        .tag("flow", at.flowId())
+                        .tag("block", at.blockId())
+                        .register(registry);
+            }
+            waiting.sessions += delta;
+            if (waiting.sessions <= 0) {
+                registry.remove(waiting.gauge);
+                return null;
+            }
+            return waiting;
+        });
     }
 
     private void sendMessage(Session session, String text, String currentBlockId) {
-        ConversationEntry botEntry = new ConversationEntry(session.getId(), "BOT", text, currentBlockId);
-        botEntry.persist();
-        // Using getAsyncRemote() for non-blocking sends, which is required on an I/O thread.
-        session.getAsyncRemote().sendText(text, result -> {
-            if (!result.isOK()) {
-                System.err.println("Error sending message to " + session.getId() + ": " + result.getException());
-            }
-        });
+        // Journaled before it goes out, like every turn's replies. The transcript is written behind, so delivery never waits on the database.
+        transcriptJournal.append(new ConversationEntry(conversationId(session), "BOT", text, currentBlockId));
+        outboundChannels.send(session, List.of(new Reply(text, currentBlockId)));
     }
 }
\ No newline at end of file
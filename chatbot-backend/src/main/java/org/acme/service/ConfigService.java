@@ -1,38 +1,380 @@
 package org.acme.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledFlow;
+import org.acme.domain.FlowAnalyzer;
+import org.acme.domain.FlowPayload;
+import org.acme.domain.FlowReader;
+import org.acme.persistence.FlowStore;
+import org.acme.persistence.FlowSummary;
+import org.acme.service.block.BlockHandlers;
+import org.acme.service.block.IntentDetectionBlockHandler;
+import org.acme.service.block.MessageBlockHandler;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
+/**
+ * Holds the chatbot flows, any number of them, keyed by flowId.
+ * <p>
+ * Uploads are saved to the database and compiled into a new version, off to the side, then swapped in; readers never wait.
+ * A flow that isn't in memory is loaded from the database the first time someone asks for it. The compiled flows in memory
+ * are bounded by chatbot.flows.cache.max-blocks: cold flows are dropped first, and loaded again when they are needed.
+ * Uploads on other nodes are picked up by checking a cached flow's version in the database once it is refresh-after old;
+ * the check is in the background, readers keep the version they have until the new one is compiled.
+ * Flow ids that aren't in the database are remembered for as long, so unknown ids don't cost a query each.
+ * <p>
+ * New conversations get the latest version of their flow and stay {@link #pin pinned} to it, so an upload never pulls the blocks out
+ * from under a conversation that is halfway through. A version is dropped once it is neither cached nor pinned.
+ * Conversations that don't ask for a flow get the default one: chatbot.flows.default-flow-id, or else the last one uploaded.
+ * <p>
+ * Metrics: cache.* with cache=flows, chatbot.flows.cached-blocks and chatbot.flow.versions (how many are still in use).
+ */
 @ApplicationScoped //This tells Quarkus to create only one instance of this class
 public class ConfigService {
 
-    // Using AtomicReference to hold the configuration for thread-safe updates
-    private final AtomicReference<ChatbotFlow> currentFlow = new AtomicReference<>();
+    private static final Logger LOG = Logger.getLogger(ConfigService.class);
+
+    /**
+     * What a flowId may look like. Flow ids end up in URLs.
+     */
+    public static final Pattern FLOW_ID = Pattern.compile("[A-Za-z0-9._-]{1,128}");
+
+    // Unknown flow ids remembered at most, past this the oldest are forgotten
+    private static final int MAX_MISSING = 10_000;
+
+    @ConfigProperty(name = "chatbot.flows.default-flow-id")
+    Optional<String> defaultFlowId;
+
+    // Every block counts one, so a few huge flows can't push out hundreds of small ones unnoticed
+    @ConfigProperty(name = "chatbot.flows.cache.max-blocks", defaultValue = "1000000")
+    long maxCachedBlocks;
+
+    // How long an upload on another node can go unnoticed here
+    @ConfigProperty(name = "chatbot.flows.cache.refresh-after", defaultValue = "30s")
+    Duration refreshAfter;
+
+    @Inject
+    FlowStore flowStore;
+
+    @Inject
+    MeterRegistry registry;
+
+    // A flow may only use block types something can run
+    @Inject
+    BlockHandlers blockHandlers;
+
+    // The latest compiled version of each flow in memory. Reading a cached flow takes no lock.
+    private LoadingCache<String, CompiledFlow> flows;
+    // Flow ids the database didn't have, Caffeine doesn't cache a null
+    private Cache<String, Boolean> missing;
+    // How many conversations are pinned to each version, old versions stay here after the cache moved on
+    private final Map<CompiledFlow, Integer> pins = new ConcurrentHashMap<>();
+    // The last flow uploaded, looked up in the database the first time it's needed: null until then
+    private final AtomicReference<Optional<String>> latestFlowId = new AtomicReference<>();
+
+    ConfigService() {
+        // For CDI
+    }
+
+    public ConfigService(FlowStore flowStore, long maxCachedBlocks, MeterRegistry registry) {
+        this.flowStore = flowStore;
+        this.maxCachedBlocks = maxCachedBlocks;
+        this.registry = registry;
+        this.defaultFlowId = Optional.empty();
+        this.refreshAfter = Duration.ofSeconds(30);
+        this.blockHandlers = new BlockHandlers(List.of(new MessageBlockHandler(), new IntentDetectionBlockHandler()));
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        flows = Caffeine.newBuilder()
+                .maximumWeight(maxCachedBlocks)
+                .<String, CompiledFlow>weigher((flowId, flow) -> Math.max(1, flow.size()))
+                .refreshAfterWrite(refreshAfter)
+                .recordStats()
+                .build(new CacheLoader<>() {
+                    @Override
+                    public CompiledFlow load(String flowId) {
+                        return ConfigService.this.load(flowId);
+                    }
+
+                    @Override
+                    public CompiledFlow reload(String flowId, CompiledFlow cached) {
+                        return ConfigService.this.reload(flowId, cached);
+                    }
+                });
+        missing = Caffeine.newBuilder()
+                .maximumSize(MAX_MISSING)
+                .expireAfterWrite(refreshAfter)
+                .build();
+        CaffeineCacheMetrics.monitor(registry, flows, "flows");
+        Gauge.builder("chatbot.flows.cached-blocks", flows, cache -> cache.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .description("Blocks of the compiled flows kept in memory, bounded by chatbot.flows.cache.max-blocks")
+                .register(registry);
+        Gauge.builder("chatbot.flow.versions", this, ConfigService::liveVersions)
+                .description("Flow versions in use: the cached ones, and older ones with conversations pinned to them")
+                .register(registry);
+    }
 
     /**
-     * Updates the current chatbot flow configuration.
+     * Saves a new or updated chatbot flow, which becomes the latest version of its flowId.
+     * Throws a {@link org.acme.domain.FlowValidationException} for a flow that {@link FlowAnalyzer} finds problems in.
      */
     public void updateFlow(ChatbotFlow newFlow) {
+        // Read back from its payload like an upload, so none of the caller's objects are kept
+        updateCompiledFlow(newFlow != null ? FlowReader.read(FlowPayload.encode(newFlow), 0) : null);
+    }
+
+    /**
+     * Same, for a flow that was compiled already, like one {@link org.acme.domain.FlowReader} read from an upload.
+     */
+    public void updateCompiledFlow(CompiledFlow checked) {
+        ChatbotFlow newFlow = checked != null ? checked.source() : null;
         // Ensure the new flow is not null
         if (newFlow == null || newFlow.flowId == null) {
             throw new IllegalArgumentException("Chatbot flow cannot be null and must have a flowId.");
         }
-        this.currentFlow.set(newFlow);
-        System.out.println("Chatbot flow updated successfully. New flow ID: " + newFlow.flowId);
+        if (!FLOW_ID.matcher(newFlow.flowId).matches()) {
+            throw new IllegalArgumentException("A flowId may only contain letters, digits, '.', '_' and '-', up to 128 of them.");
+        }
+        // Checked before anything is stored, a broken flow never reaches a conversation
+        FlowAnalyzer.validate(newFlow, checked, blockHandlers.types());
+        CompiledFlow compiled = checked.withVersion(flowStore.save(checked));
+        // Two uploads of the same flow may get here in either order, the higher version wins
+        flows.asMap().merge(newFlow.flowId, compiled, (cached, uploaded) -> uploaded.version() > cached.version() ? uploaded : cached);
+        missing.invalidate(newFlow.flowId);
+        latestFlowId.set(Optional.of(newFlow.flowId));
+        LOG.infof("Chatbot flow updated successfully. New flow ID: %s, version %d", newFlow.flowId, compiled.version());
     }
 
     /**
-     * Retrieves the current chatbot flow configuration.
+     * Retrieves the default chatbot flow configuration.
      */
     public ChatbotFlow getFlow() {
-        return this.currentFlow.get();
+        return getFlow(null);
+    }
+
+    /**
+     * Retrieves a flow's configuration as it was uploaded, the default flow for a null flowId. Returns null if there is no such flow.
+     * It is decoded from the flow's payload on every call, only the compiled flow stays in memory.
+     */
+    public ChatbotFlow getFlow(String flowId) {
+        CompiledFlow flow = getCompiledFlow(flowId);
+        return flow != null ? FlowPayload.decode(flow.payload()) : null;
+    }
+
+    /**
+     * Retrieves the compiled version of the default flow, used by the conversation engine.
+     */
+    public CompiledFlow getCompiledFlow() {
+        return getCompiledFlow(null);
+    }
+
+    /**
+     * Retrieves the latest compiled version of a flow, the default flow for a null flowId.
+     * Loads it from the database if it isn't in memory, returns null if there is no such flow.
+     */
+    public CompiledFlow getCompiledFlow(String flowId) {
+        String id = flowId != null ? flowId : defaultFlowId();
+        if (id == null) {
+            return null;
+        }
+        CompiledFlow flow = flows.getIfPresent(id);
+        if (flow != null || missing.getIfPresent(id) != null) {
+            return flow;
+        }
+        // Only a miss blocks, and only callers waiting for the same flow
+        flow = flows.get(id);
+        if (flow == null) {
+            missing.put(id, Boolean.TRUE);
+        }
+        return flow;
+    }
+
+    private CompiledFlow load(String flowId) {
+        FlowStore.Loaded loaded = flowStore.load(flowId);
+        if (loaded == null) {
+            return null;
+        }
+        LOG.debugf("Loaded flow %s, version %d", flowId, loaded.version());
+        return FlowReader.read(loaded.payload(), loaded.version());
+    }
+
+    // Only the version is read, the flow itself only if another node uploaded a newer one. Null drops the flow, it was deleted.
+    private CompiledFlow reload(String flowId, CompiledFlow cached) {
+        Long stored = flowStore.version(flowId);
+        if (stored == null) {
+            LOG.debugf("Flow %s was deleted elsewhere, dropping it", flowId);
+            return null;
+        }
+        if (stored <= cached.version()) {
+            return cached;
+        }
+        CompiledFlow loaded = load(flowId);
+        return loaded != null ? loaded : cached;
+    }
+
+    private String defaultFlowId() {
+        if (defaultFlowId.isPresent()) {
+            return defaultFlowId.get();
+        }
+        Optional<String> latest = latestFlowId.get();
+        if (latest == null) {
+            // An upload in the meantime knows better than the database did
+            latestFlowId.compareAndSet(null, Optional.ofNullable(flowStore.latestFlowId()));
+            latest = latestFlowId.get();
+        }
+        return latest.orElse(null);
+    }
+
+    /**
+     * Loads and compiles the most recently updated flows, as many as the cache holds, several at a time.
+     * Returns how many are in memory now. A flow that fails to load is skipped, it gets another chance when it is first used.
+     */
+    int warmUp(int parallelism) {
+        List<FlowSummary> recentFirst = new ArrayList<>(flowStore.list());
+        recentFirst.sort(Comparator.comparing(FlowSummary::updatedAt).reversed());
+        List<String> flowIds = new ArrayList<>();
+        long blocks = 0;
+        for (FlowSummary flow : recentFirst) {
+            blocks += Math.max(1, flow.blockCount());
+            if (blocks > maxCachedBlocks) {
+                break;
+            }
+            flowIds.add(flow.flowId());
+        }
+        ExecutorService loaders = Executors.newFixedThreadPool(Math.max(1, parallelism), task -> {
+            Thread thread = new Thread(task, "flow-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int loaded = 0;
+        try {
+            List<Future<CompiledFlow>> pending = new ArrayList<>();
+            for (String flowId : flowIds) {
+                pending.add(loaders.submit(() -> getCompiledFlow(flowId)));
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    if (pending.get(i).get() != null) {
+                        loaded++;
+                    }
+                } catch (ExecutionException e) {
+                    LOG.warnf(e.getCause(), "Could not load flow %s", flowIds.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            loaders.shutdownNow();
+        }
+        defaultFlowId(); // Looked up once now rather than on the first connection
+        return loaded;
+    }
+
+    /**
+     * Summaries of all stored flows.
+     */
+    public List<FlowSummary> listFlows() {
+        return flowStore.list();
+    }
+
+    /**
+     * Deletes a flow. Conversations pinned to it finish on their version. Returns false if there was no such flow.
+     */
+    public boolean deleteFlow(String flowId) {
+        boolean deleted = flowStore.delete(flowId);
+        flows.invalidate(flowId);
+        Optional<String> latest = latestFlowId.get();
+        if (latest != null && latest.equals(Optional.of(flowId))) {
+            // Look up which one is the last upload now
+            latestFlowId.compareAndSet(latest, null);
+        }
+        LOG.infof("Chatbot flow %s deleted", flowId);
+        return deleted;
+    }
+
+    /**
+     * Pins a conversation to the latest version of the default flow.
+     */
+    public CompiledFlow pin() {
+        return pin(null);
+    }
+
+    /**
+     * Pins a conversation to the latest version of a flow, which is kept until every pin on it is {@link #release released}.
+     * Returns null if there is no such flow.
+     */
+    public CompiledFlow pin(String flowId) {
+        CompiledFlow flow = getCompiledFlow(flowId);
+        if (flow != null) {
+            pins.merge(flow, 1, Integer::sum);
+        }
+        return flow;
+    }
+
+    /**
+     * Releases a pin taken with {@link #pin}.
+     */
+    public void release(CompiledFlow flow) {
+        pins.computeIfPresent(flow, (pinned, sessions) -> sessions > 1 ? sessions - 1 : null);
+    }
+
+    private long liveVersions() {
+        long pinnedOnly = pins.keySet().stream()
+                .filter(pinned -> flows.policy().getIfPresentQuietly(pinned.source().flowId) != pinned)
+                .count();
+        return flows.estimatedSize() + pinnedOnly;
+    }
+
+    /**
+     * Drops a flow from memory, as if it had been evicted.
+     */
+    void unload(String flowId) {
+        flows.invalidate(flowId);
+    }
+
+    /**
+     * Checks a cached flow against the database now, as if it were refresh-after old.
+     */
+    CompletableFuture<CompiledFlow> refresh(String flowId) {
+        return flows.refresh(flowId);
     }
 
     /**
-     * Clears the current flow. Intended for use in tests to ensure isolation.
+     * Deletes all flows. Intended for use in tests to ensure isolation.
      */
     public void clear() {
-        this.currentFlow.set(null);
+        flowStore.deleteAll();
+        flows.invalidateAll();
+        missing.invalidateAll();
+        pins.clear();
+        latestFlowId.set(null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package org.acme.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The executor conversation work runs on.
+ * In PLATFORM mode this is the shared ManagedExecutor. In VIRTUAL mode every task gets its own virtual thread,
+ * so blocking Gemini calls and JDBC persists can't starve the rest of the application.
+ */
+@ApplicationScoped
+public class ConversationExecutor implements Executor, AutoCloseable {
+
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private final Mode mode;
+    private final Executor delegate;
+    private final ExecutorService virtualThreads; // Null in PLATFORM mode
+
+    @Inject
+    public ConversationExecutor(ManagedExecutor managedExecutor,
+                                @ConfigProperty(name = "chatbot.execution-mode", defaultValue = "platform") Mode mode) {
+        this.mode = mode;
+        this.virtualThreads = mode == Mode.VIRTUAL ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.delegate = virtualThreads != null ? virtualThreads : managedExecutor;
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        delegate.execute(task);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+}
@@ -0,0 +1,73 @@
+package org.acme.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+import org.jboss.logging.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and compiles the stored flows while the node starts, so its first conversations don't wait for the database.
+ * The node reports ready on /q/health/ready only once that is done; a flow that failed to load is loaded on first use instead.
+ * <p>
+ * Metrics: chatbot.flows.warm-up and chatbot.startup.time-to-ready (since the JVM started).
+ */
+@Readiness
+@ApplicationScoped
+public class FlowWarmUp implements HealthCheck {
+
+    private static final Logger LOG = Logger.getLogger(FlowWarmUp.class);
+
+    @ConfigProperty(name = "chatbot.flows.warm-up.enabled", defaultValue = "true")
+    boolean enabled;
+
+    // Flows loaded at the same time, each one holds a database connection while it is read
+    @ConfigProperty(name = "chatbot.flows.warm-up.parallelism", defaultValue = "4")
+    int parallelism;
+
+    @Inject
+    ConfigService configService;
+
+    @Inject
+    MeterRegistry registry;
+
+    private volatile boolean ready;
+
+    void onStart(@Observes StartupEvent event) {
+        long start = System.nanoTime();
+        if (enabled) {
+            try {
+                int flows = configService.warmUp(parallelism);
+                LOG.infof("Loaded %d flows in %d ms", flows, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (RuntimeException e) {
+                LOG.errorf(e, "Could not load the flows, they are loaded when first used instead");
+            }
+        }
+        Timer.builder("chatbot.flows.warm-up")
+                .description("Loading and compiling the stored flows at startup")
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        Gauge.builder("chatbot.startup.time-to-ready", () -> uptime / 1000.0)
+                .description("From the JVM starting until the node was ready to serve conversations")
+                .baseUnit("seconds")
+                .register(registry);
+        ready = true;
+        LOG.infof("Ready %d ms after the JVM started", uptime);
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("flows-loaded").status(ready).build();
+    }
+}
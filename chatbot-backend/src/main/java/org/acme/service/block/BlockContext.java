@@ -0,0 +1,14 @@
+package org.acme.service.block;
+
+/**
+ * What a {@link BlockHandler} can do to the conversation it runs in.
+ */
+public interface BlockContext {
+
+    String conversationId();
+
+    /**
+     * Queues a message to the user. The messages of one turn are sent together once the turn has run.
+     */
+    void send(String text, String blockId);
+}
@@ -0,0 +1,32 @@
+package org.acme.service.block;
+
+import io.smallrye.mutiny.Uni;
+import org.acme.domain.CompiledBlock;
+
+/**
+ * Runs one type of block. Every CDI bean implementing this is picked up by {@link BlockHandlers},
+ * so a new block type is a new bean, the engine doesn't change.
+ * <p>
+ * Handlers run on the conversation's thread and must not block it; anything slow belongs in the Uni of {@link #onInput}.
+ */
+public interface BlockHandler {
+
+    /**
+     * The block type this handles, as written in the flow's "type" field.
+     */
+    String type();
+
+    /**
+     * Runs the block and says where the conversation goes from here.
+     */
+    Step execute(CompiledBlock block, BlockContext context);
+
+    /**
+     * Handles the user's message when the conversation waits at this block, after {@link #execute} returned
+     * {@link Step#WAIT_FOR_INPUT}. {@link Step#WAIT_FOR_INPUT} again keeps it waiting here.
+     * By default the conversation moves on to the block's next block.
+     */
+    default Uni<Step> onInput(CompiledBlock block, String userMessage, BlockContext context) {
+        return Uni.createFrom().item(Step.next(block.nextBlockId()));
+    }
+}
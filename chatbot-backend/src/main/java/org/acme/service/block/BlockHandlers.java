@@ -0,0 +1,48 @@
+package org.acme.service.block;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link BlockHandler}s, by block type. Built once, lookups are a plain map read.
+ */
+@ApplicationScoped
+public class BlockHandlers {
+
+    private final Map<String, BlockHandler> byType;
+
+    @Inject
+    public BlockHandlers(@Any Instance<BlockHandler> handlers) {
+        this(handlers.stream().toList());
+    }
+
+    public BlockHandlers(List<BlockHandler> handlers) {
+        Map<String, BlockHandler> map = new HashMap<>();
+        for (BlockHandler handler : handlers) {
+            BlockHandler other = map.putIfAbsent(handler.type(), handler);
+            if (other != null) {
+                throw new IllegalStateException("Two handlers for block type " + handler.type() + ": "
+                        + other.getClass().getName() + " and " + handler.getClass().getName());
+            }
+        }
+        this.byType = Map.copyOf(map);
+    }
+
+    /**
+     * Returns null if nothing handles this type.
+     */
+    public BlockHandler forType(String type) {
+        return type != null ? byType.get(type) : null;
+    }
+
+    public Set<String> types() {
+        return byType.keySet();
+    }
+}
@@ -0,0 +1,42 @@
+package org.acme.service.block;
+
+import io.opentelemetry.api.trace.Span;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.acme.domain.CompiledBlock;
+import org.acme.service.intent.IntentResolver;
+import org.jboss.logging.Logger;
+
+/**
+ * Waits for the user. Their message is classified by the intent pipeline, which picks the next block.
+ */
+@ApplicationScoped
+public class IntentDetectionBlockHandler implements BlockHandler {
+
+    private static final Logger LOG = Logger.getLogger(IntentDetectionBlockHandler.class);
+
+    @Inject
+    IntentResolver intentResolver;
+
+    @Override
+    public String type() {
+        return "INTENT_DETECTION";
+    }
+
+    @Override
+    public Step execute(CompiledBlock block, BlockContext context) {
+        return Step.WAIT_FOR_INPUT;
+    }
+
+    @Override
+    public Uni<Step> onInput(CompiledBlock block, String userMessage, BlockContext context) {
+        Span span = Span.current(); // The turn's, the intent may arrive on another thread
+        return intentResolver.resolve(block, userMessage)
+                .map(matchedIntent -> {
+                    span.setAttribute("chatbot.intent", matchedIntent);
+                    LOG.debugf("Conversation %s: detected intent '%s' at block '%s'", context.conversationId(), matchedIntent, block.id());
+                    return Step.next(block.targetFor(matchedIntent));
+                });
+    }
+}
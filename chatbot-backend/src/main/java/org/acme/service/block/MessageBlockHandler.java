@@ -0,0 +1,22 @@
+package org.acme.service.block;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.domain.CompiledBlock;
+
+/**
+ * Says the block's text and moves on.
+ */
+@ApplicationScoped
+public class MessageBlockHandler implements BlockHandler {
+
+    @Override
+    public String type() {
+        return "MESSAGE";
+    }
+
+    @Override
+    public Step execute(CompiledBlock block, BlockContext context) {
+        context.send(block.text(), block.id());
+        return Step.next(block.nextBlockId());
+    }
+}
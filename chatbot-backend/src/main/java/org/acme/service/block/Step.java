@@ -0,0 +1,15 @@
+package org.acme.service.block;
+
+/**
+ * Where a conversation goes after a block: on to another block, or it waits for the user's next message,
+ * or it has ended (no next block).
+ */
+public record Step(String nextBlockId, boolean waitForInput) {
+
+    public static final Step END = new Step(null, false);
+    public static final Step WAIT_FOR_INPUT = new Step(null, true);
+
+    public static Step next(String blockId) {
+        return blockId != null ? new Step(blockId, false) : END;
+    }
+}
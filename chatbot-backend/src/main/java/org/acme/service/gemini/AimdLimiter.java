@@ -0,0 +1,121 @@
+package org.acme.service.gemini;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Additive-increase/multiplicative-decrease bound on concurrent Gemini calls.
+ * Every call that comes back in time while the limit is in use raises the limit by 1/limit, about one per round trip.
+ * A failed or slow call cuts it by the backoff ratio, so a degrading provider quickly gets less traffic, not more.
+ * Calls over the limit can queue: a released permit goes straight to the oldest waiter.
+ */
+final class AimdLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+
+    private double limit;
+    private int inFlight;
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    AimdLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Invalid limiter settings: min " + minLimit + ", max " + maxLimit + ", backoff " + backoffRatio);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Takes a permit, or returns false if the limit is reached. A taken permit must be released exactly once.
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit || !waiters.isEmpty()) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Takes a permit now, or queues for the next free one. The returned future completes once the permit is taken;
+     * a caller that stops waiting before that must {@link #abandon} it, and must not complete or cancel it itself.
+     */
+    synchronized CompletableFuture<Void> acquire() {
+        if (tryAcquire()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * Leaves the queue. Returns false if the permit was handed over already, and then it is the caller's to give back.
+     */
+    synchronized boolean abandon(CompletableFuture<Void> waiter) {
+        return waiters.remove(waiter);
+    }
+
+    /**
+     * @param dropped Whether the call failed or was slower than the latency threshold.
+     */
+    void release(boolean dropped) {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            // Only grow while the limit is actually being used, otherwise an idle period would inflate it without evidence
+            boolean limited = inFlight * 2 >= limit;
+            inFlight--;
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (limited) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            granted = handOver();
+        }
+        wake(granted);
+    }
+
+    /**
+     * Returns a permit without judging the call, e.g. a hedge that lost the race and was cancelled.
+     */
+    void cancel() {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            inFlight--;
+            granted = handOver();
+        }
+        wake(granted);
+    }
+
+    private List<CompletableFuture<Void>> handOver() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        while (inFlight < (int) limit && !waiters.isEmpty()) {
+            inFlight++;
+            granted.add(waiters.poll());
+        }
+        return granted;
+    }
+
+    // Outside the lock: completing a waiter runs its call right away
+    private static void wake(List<CompletableFuture<Void>> granted) {
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int queued() {
+        return waiters.size();
+    }
+}
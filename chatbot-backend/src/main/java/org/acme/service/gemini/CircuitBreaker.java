@@ -0,0 +1,141 @@
+package org.acme.service.gemini;
+
+import java.time.Duration;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling Gemini once too many of the recent calls failed.
+ * While open, callers fail immediately instead of waiting for a timeout. After the open duration a single
+ * trial call is let through: if it succeeds the circuit closes again, otherwise it stays open for another period.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final boolean[] outcomes; // Ring of the last window-size calls, true for a failure
+    private final int minimumCalls;
+    private final double failureRatio;
+    private final long openNanos;
+    private final LongSupplier clock;
+    private final BiConsumer<State, State> onTransition;
+
+    private State state = State.CLOSED;
+    private int calls;
+    private int failures;
+    private int next;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRatio, Duration openDuration,
+                   LongSupplier clock, BiConsumer<State, State> onTransition) {
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRatio = failureRatio;
+        this.openNanos = openDuration.toNanos();
+        this.clock = clock;
+        this.onTransition = onTransition;
+    }
+
+    /**
+     * Returns whether a call may go out now. Every permitted call must be reported through
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}.
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openNanos) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            resetWindow();
+            transition(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (calls >= minimumCalls && failures >= failureRatio * calls) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * The permitted call ended without telling us anything about Gemini's health, e.g. it was cancelled.
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    synchronized void reset() {
+        resetWindow();
+        trialInFlight = false;
+        if (state != State.CLOSED) {
+            transition(State.CLOSED);
+        }
+    }
+
+    private void record(boolean failure) {
+        if (calls == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        openedAt = clock.getAsLong();
+        resetWindow();
+        transition(State.OPEN);
+    }
+
+    private void resetWindow() {
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        onTransition.accept(from, to);
+    }
+}
@@ -0,0 +1,184 @@
+package org.acme.service.gemini;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects classifications for a short window and sends them to Gemini as one prompt.
+ * The provider limits requests per minute long before it limits tokens, so under load
+ * one request for twenty messages is much cheaper than twenty requests.
+ * <p>
+ * A batch is sent when it reaches max-size, or when the window since its first message has passed.
+ * Each caller gets its own answer; an item the model left out fails on its own and is not cached.
+ */
+@ApplicationScoped
+public class GeminiBatcher {
+
+    record Pending(int id, String userMessage, List<String> possibleIntents, UniEmitter<? super String> emitter) {
+    }
+
+    private static final Logger LOG = Logger.getLogger(GeminiBatcher.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Always the same, and first, so batch prompts share their start for the provider's prompt caching
+    private static final String BATCH_INSTRUCTIONS = "You are an expert intent classifier. Below is a JSON array of user messages, each with its own list of possible intents." +
+            " For every message, determine which of ITS intents best matches it, or \"NO_MATCH\" if no intent is a clear match." +
+            " Respond with ONLY a JSON object that maps each message's id to the exact string of the chosen intent," +
+            " for example {\"1\": \"Yes\", \"2\": \"NO_MATCH\"}. Do not add any explanation or other text." +
+            " The messages are: ";
+
+    @Inject
+    GeminiGuard geminiGuard;
+
+    @ConfigProperty(name = "gemini.batching.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "gemini.batching.window", defaultValue = "20ms")
+    Duration window;
+
+    @ConfigProperty(name = "gemini.batching.max-size", defaultValue = "20")
+    int maxSize;
+
+    @Inject
+    MeterRegistry registry;
+
+    private List<Pending> pending = new ArrayList<>();
+    private DistributionSummary batchSize;
+    private DistributionSummary fillRatio;
+
+    @PostConstruct
+    void init() {
+        batchSize = DistributionSummary.builder("chatbot.gemini.batch.size")
+                .description("Classifications sent in one Gemini request")
+                .register(registry);
+        fillRatio = DistributionSummary.builder("chatbot.gemini.batch.fill-ratio")
+                .description("Batch size divided by the configured maximum; low values mean the window expires first")
+                .register(registry);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a classification for the next batch.
+     * @return A Uni with the matched intent or NO_MATCH, or a failure if the batch call failed.
+     */
+    public Uni<String> classify(String userMessage, List<String> possibleIntents) {
+        return Uni.createFrom().emitter(emitter -> enqueue(userMessage, possibleIntents, emitter));
+    }
+
+    private void enqueue(String userMessage, List<String> possibleIntents, UniEmitter<? super String> emitter) {
+        List<Pending> full = null;
+        synchronized (this) {
+            List<Pending> batch = pending;
+            batch.add(new Pending(batch.size() + 1, userMessage, possibleIntents, emitter));
+            if (batch.size() >= maxSize) {
+                full = batch;
+                pending = new ArrayList<>();
+            } else if (batch.size() == 1) {
+                // The window starts with the first message of a batch, not with the last one
+                Infrastructure.getDefaultWorkerPool().schedule(() -> flushExpired(batch), window.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    private void flushExpired(List<Pending> batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                return; // Already went out because it filled up
+            }
+            pending = new ArrayList<>();
+        }
+        send(batch);
+    }
+
+    private void send(List<Pending> batch) {
+        batchSize.record(batch.size());
+        fillRatio.record((double) batch.size() / maxSize);
+
+        String prompt = buildBatchPrompt(batch);
+        LOG.debugf("Sending %d classifications in one request", batch.size());
+        GeminiRequest request = new GeminiRequest(Collections.singletonList(new Content(Collections.singletonList(new Part(prompt)))));
+
+        geminiGuard.generateContent(request)
+                .subscribe().with(
+                        response -> complete(batch, response.firstTextResult()),
+                        failure -> {
+                            LOG.warnf("Batch of %d classifications failed: %s", batch.size(), failure.getMessage());
+                            batch.forEach(item -> item.emitter().fail(failure));
+                        });
+    }
+
+    private void complete(List<Pending> batch, String rawText) {
+        JsonNode answers = parseAnswers(rawText);
+        for (Pending item : batch) {
+            JsonNode answer = answers != null ? answers.get(String.valueOf(item.id())) : null;
+            if (answer == null || !answer.isTextual()) {
+                item.emitter().fail(new IllegalStateException("Gemini left out item " + item.id() + " of the batch"));
+                continue;
+            }
+            String intent = answer.asText().trim();
+            item.emitter().complete(item.possibleIntents().contains(intent) ? intent : "NO_MATCH");
+        }
+    }
+
+    static JsonNode parseAnswers(String rawText) {
+        if (rawText == null) {
+            return null;
+        }
+        // Models like to wrap JSON in a markdown code block even when asked not to
+        String json = rawText.trim();
+        int start = json.indexOf('{');
+        int end = json.lastIndexOf('}');
+        if (start < 0 || end < start) {
+            // The text may quote the users' messages, so it only goes to the log at DEBUG
+            LOG.warnf("Batch response is not a JSON object (%d characters)", rawText.length());
+            if (LOG.isDebugEnabled()) {
+                LOG.debugf("Batch response: '%s'", rawText);
+            }
+            return null;
+        }
+        try {
+            return MAPPER.readTree(json.substring(start, end + 1));
+        } catch (JsonProcessingException e) {
+            LOG.warnf("Could not parse batch response: %s", e.getOriginalMessage());
+            return null;
+        }
+    }
+
+    static String buildBatchPrompt(List<Pending> batch) {
+        // The items go in as JSON, so quotes in a user's message can't break the prompt's structure
+        ArrayNode items = MAPPER.createArrayNode();
+        for (Pending item : batch) {
+            ObjectNode node = items.addObject();
+            node.put("id", item.id());
+            node.put("message", item.userMessage());
+            ArrayNode intents = node.putArray("intents");
+            item.possibleIntents().forEach(intents::add);
+        }
+
+        return BATCH_INSTRUCTIONS + items;
+    }
+}
@@ -0,0 +1,298 @@
+package org.acme.service.gemini;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * The only way to Gemini. Keeps a slow or failing provider from dragging every conversation down with it:
+ * <ul>
+ *     <li>an adaptive limit on concurrent calls; calls beyond it wait briefly for a permit, and fail if none comes free,</li>
+ *     <li>a circuit breaker that stops calling after repeated failures,</li>
+ *     <li>optionally, a second (hedged) request when the first one is slower than the recent p95.</li>
+ * </ul>
+ * A call refused by the limiter or the breaker fails with {@link GeminiUnavailableException}, which
+ * GeminiService turns into NO_MATCH, so the conversation moves on to the block's fallback.
+ */
+@ApplicationScoped
+public class GeminiGuard {
+
+    private static final Logger LOG = Logger.getLogger(GeminiGuard.class);
+
+    // Hedging waits until there is a meaningful p95 to go by
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int LATENCY_WINDOW = 200;
+
+    @RestClient
+    GeminiClient geminiClient;
+
+    @ConfigProperty(name = "gemini.api.key")
+    String apiKey;
+
+    // Nothing waits on a thread for the answer, so each attempt has to give up eventually
+    @ConfigProperty(name = "gemini.request-timeout", defaultValue = "15s")
+    Duration requestTimeout;
+
+    @ConfigProperty(name = "gemini.limiter.enabled", defaultValue = "true")
+    boolean limiterEnabled;
+
+    @ConfigProperty(name = "gemini.limiter.initial-limit", defaultValue = "20")
+    int initialLimit;
+
+    @ConfigProperty(name = "gemini.limiter.min-limit", defaultValue = "1")
+    int minLimit;
+
+    @ConfigProperty(name = "gemini.limiter.max-limit", defaultValue = "200")
+    int maxLimit;
+
+    @ConfigProperty(name = "gemini.limiter.backoff-ratio", defaultValue = "0.9")
+    double backoffRatio;
+
+    @ConfigProperty(name = "gemini.limiter.latency-threshold", defaultValue = "5s")
+    Duration latencyThreshold;
+
+    // Unset waits as long as a request may take
+    @ConfigProperty(name = "gemini.limiter.max-wait")
+    Optional<Duration> maxWait;
+
+    @ConfigProperty(name = "gemini.circuit-breaker.enabled", defaultValue = "true")
+    boolean breakerEnabled;
+
+    @ConfigProperty(name = "gemini.circuit-breaker.window-size", defaultValue = "20")
+    int breakerWindowSize;
+
+    @ConfigProperty(name = "gemini.circuit-breaker.minimum-calls", defaultValue = "10")
+    int breakerMinimumCalls;
+
+    @ConfigProperty(name = "gemini.circuit-breaker.failure-ratio", defaultValue = "0.5")
+    double breakerFailureRatio;
+
+    @ConfigProperty(name = "gemini.circuit-breaker.open-duration", defaultValue = "30s")
+    Duration breakerOpenDuration;
+
+    @ConfigProperty(name = "gemini.hedging.enabled", defaultValue = "false")
+    boolean hedgingEnabled;
+
+    @Inject
+    MeterRegistry registry;
+
+    private AimdLimiter limiter;
+    private CircuitBreaker breaker;
+    private Counter rejected;
+    private Counter hedges;
+    private Timer succeeded;
+    private Timer failed;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private int nextLatency;
+    private volatile long p95Nanos = -1;
+
+    @PostConstruct
+    void init() {
+        limiter = new AimdLimiter(initialLimit, minLimit, maxLimit, backoffRatio);
+        breaker = new CircuitBreaker(breakerWindowSize, breakerMinimumCalls, breakerFailureRatio, breakerOpenDuration,
+                System::nanoTime, this::onTransition);
+
+        Gauge.builder("chatbot.gemini.limiter.limit", limiter, AimdLimiter::limit)
+                .description("Current adaptive limit on concurrent Gemini calls")
+                .register(registry);
+        Gauge.builder("chatbot.gemini.limiter.in-flight", limiter, AimdLimiter::inFlight)
+                .register(registry);
+        Gauge.builder("chatbot.gemini.limiter.queued", limiter, AimdLimiter::queued)
+                .description("Calls waiting for a permit")
+                .register(registry);
+        rejected = Counter.builder("chatbot.gemini.limiter.rejected")
+                .description("Calls refused because no permit came free within the maximum wait")
+                .register(registry);
+        Gauge.builder("chatbot.gemini.circuit-breaker.state", breaker, b -> b.state().ordinal())
+                .description("0 closed, 1 open, 2 half-open")
+                .register(registry);
+        hedges = Counter.builder("chatbot.gemini.hedges")
+                .description("Second requests sent because the first was slower than the recent p95")
+                .register(registry);
+        succeeded = requestTimer("success");
+        failed = requestTimer("failure");
+    }
+
+    private Timer requestTimer(String outcome) {
+        return Timer.builder("chatbot.gemini.request")
+                .description("Latency of single HTTP requests to Gemini, hedges included")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Sends the request to Gemini, unless the provider is currently considered unhealthy or saturated.
+     */
+    public Uni<GeminiResponse> generateContent(GeminiRequest request) {
+        return Uni.createFrom().deferred(() -> {
+            if (breakerEnabled && !breaker.tryAcquire()) {
+                return Uni.createFrom().failure(new GeminiUnavailableException("Circuit breaker is open"));
+            }
+            Uni<GeminiResponse> call = attempt(request, true);
+            long hedgeAfter = p95Nanos;
+            if (hedgingEnabled && hedgeAfter > 0) {
+                Uni<GeminiResponse> hedge = Uni.createFrom().voidItem()
+                        .onItem().delayIt().by(Duration.ofNanos(hedgeAfter))
+                        .chain(() -> {
+                            hedges.increment();
+                            return attempt(request, false);
+                        })
+                        // No permit left for the hedge, so the first request is on its own. A hedge doesn't queue, it
+                        // would only be late for a call that is already late.
+                        .onFailure(GeminiUnavailableException.class).recoverWithUni(Uni.createFrom().nothing());
+                call = race(call, hedge);
+            }
+            if (!breakerEnabled) {
+                return call;
+            }
+            return call
+                    .onItemOrFailure().invoke((response, failure) -> {
+                        if (failure == null) {
+                            breaker.onSuccess();
+                        } else if (failure instanceof GeminiUnavailableException) {
+                            breaker.onIgnored();
+                        } else {
+                            breaker.onFailure();
+                        }
+                    })
+                    .onCancellation().invoke(breaker::onIgnored);
+        });
+    }
+
+    private Uni<GeminiResponse> attempt(GeminiRequest request, boolean queue) {
+        return permit(queue).chain(() -> {
+            long start = System.nanoTime();
+            return geminiClient.generateContent(apiKey, request)
+                    .ifNoItem().after(requestTimeout).fail()
+                    .onItemOrFailure().invoke((response, failure) -> {
+                        long latency = System.nanoTime() - start;
+                        if (limiterEnabled) {
+                            limiter.release(failure != null || latency > latencyThreshold.toNanos());
+                        }
+                        if (failure == null) {
+                            succeeded.record(latency, TimeUnit.NANOSECONDS);
+                            recordLatency(latency);
+                        } else {
+                            failed.record(latency, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .onCancellation().invoke(() -> {
+                        if (limiterEnabled) {
+                            limiter.cancel();
+                        }
+                    });
+        });
+    }
+
+    // A burst over the limit waits its turn instead of going straight to the fallback; only a wait that runs out sheds the call
+    private Uni<Void> permit(boolean queue) {
+        return Uni.createFrom().deferred(() -> {
+            if (!limiterEnabled) {
+                return Uni.createFrom().voidItem();
+            }
+            if (!queue) {
+                return limiter.tryAcquire() ? Uni.createFrom().voidItem() : Uni.createFrom().failure(overLimit());
+            }
+            CompletableFuture<Void> waiter = limiter.acquire();
+            if (waiter.isDone()) {
+                return Uni.createFrom().voidItem();
+            }
+            return Uni.createFrom().<Void>emitter(emitter -> waiter.thenRun(() -> emitter.complete(null)))
+                    .onCancellation().invoke(() -> {
+                        if (!limiter.abandon(waiter)) {
+                            limiter.cancel(); // The permit came just as the wait ended
+                        }
+                    })
+                    .ifNoItem().after(maxWait.orElse(requestTimeout)).failWith(this::overLimit);
+        });
+    }
+
+    private GeminiUnavailableException overLimit() {
+        rejected.increment();
+        return new GeminiUnavailableException("No permit for a Gemini call within the concurrency limit of " + limiter.limit());
+    }
+
+    // Whichever answers first wins and the other one is cancelled, so it gives its permit back without counting as a drop
+    private static <T> Uni<T> race(Uni<T> first, Uni<T> second) {
+        return Uni.createFrom().emitter(emitter -> {
+            AtomicBoolean done = new AtomicBoolean();
+            Cancellable[] attempts = new Cancellable[2];
+            Runnable cancelAll = () -> {
+                for (Cancellable attempt : attempts) {
+                    if (attempt != null) {
+                        attempt.cancel();
+                    }
+                }
+            };
+            Consumer<T> onItem = item -> {
+                if (done.compareAndSet(false, true)) {
+                    emitter.complete(item);
+                }
+            };
+            Consumer<Throwable> onFailure = failure -> {
+                if (done.compareAndSet(false, true)) {
+                    emitter.fail(failure);
+                }
+            };
+            emitter.onTermination(cancelAll);
+            attempts[0] = first.subscribe().with(onItem, onFailure);
+            attempts[1] = second.subscribe().with(onItem, onFailure);
+            if (done.get()) {
+                cancelAll.run(); // The first attempt answered before the second was even subscribed
+            }
+        });
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[nextLatency] = nanos;
+        nextLatency = (nextLatency + 1) % latencies.length;
+        latencyCount = Math.min(latencyCount + 1, latencies.length);
+        // Sorting a couple of hundred longs is cheap next to an LLM call, but there is no need to do it every time
+        if (latencyCount >= MIN_LATENCY_SAMPLES && nextLatency % 10 == 0) {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            p95Nanos = sorted[(int) Math.ceil(0.95 * sorted.length) - 1];
+        }
+    }
+
+    private void onTransition(CircuitBreaker.State from, CircuitBreaker.State to) {
+        LOG.warnf("Gemini circuit breaker %s -> %s", from, to);
+        registry.counter("chatbot.gemini.circuit-breaker.transitions", "from", from.name(), "to", to.name()).increment();
+    }
+
+    /**
+     * Closes the circuit and forgets the latency history. Intended for use in tests to ensure isolation.
+     */
+    public void reset() {
+        breaker.reset();
+        synchronized (this) {
+            latencyCount = 0;
+            nextLatency = 0;
+            p95Nanos = -1;
+        }
+    }
+
+    CircuitBreaker.State breakerState() {
+        return breaker.state();
+    }
+}
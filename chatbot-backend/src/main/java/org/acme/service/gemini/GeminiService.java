@@ -1,22 +1,63 @@
 package org.acme.service.gemini;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
-import org.eclipse.microprofile.config.inject.ConfigProperty;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import jakarta.inject.Inject;
+import org.acme.domain.IntentPrompt;
+import org.jboss.logging.Logger;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @ApplicationScoped
 public class GeminiService {
 
-    @RestClient // Injects the REST client
-    GeminiClient geminiClient;
+    private static final Logger LOG = Logger.getLogger(GeminiService.class);
+    private static final String NO_MATCH = "NO_MATCH";
 
-    @ConfigProperty(name = "gemini.api.key") // Injects the API key from application.properties
-    String apiKey;
+    @Inject
+    GeminiGuard geminiGuard;
+
+    @Inject
+    IntentCache intentCache;
+
+    @Inject
+    GeminiBatcher batcher;
+
+    @Inject
+    MeterRegistry registry;
+
+    // Classifications that are on their way, so a second asker waits for the first call instead of making its own
+    private final Map<IntentCache.Key, Uni<String>> inFlight = new ConcurrentHashMap<>();
+    private Counter coalescedCalls;
+    private Timer matched;
+    private Timer noMatch;
+    private Timer failed;
+
+    @PostConstruct
+    void init() {
+        coalescedCalls = Counter.builder("chatbot.gemini.coalesced")
+                .description("Classifications that joined an identical call already in flight")
+                .register(registry);
+        matched = classificationTimer("matched");
+        noMatch = classificationTimer("no_match");
+        failed = classificationTimer("failure");
+    }
+
+    private Timer classificationTimer(String outcome) {
+        return Timer.builder("chatbot.gemini.classification")
+                .description("Gemini classifications that missed the cache, from asking to answer, including any batching delay")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
 
     /**
      * Asks the Gemini API to determine the user's intent.
@@ -25,70 +66,81 @@ public class GeminiService {
      * @return A Uni that will eventually contain the string of the matched intent.
      */
     public Uni<String> determineIntent(String userMessage, List<String> possibleIntents) {
-        String prompt = buildPrompt(userMessage, possibleIntents);
+        return determineIntent(userMessage, possibleIntents, IntentPrompt.prefix(possibleIntents));
+    }
 
-        // LOGGING: STEP 1
-        System.out.println("\n=========================================================");
-        System.out.println("[GeminiService] PROMPT SENT TO GEMINI:");
-        System.out.println(prompt);
-        System.out.println("=========================================================\n");
+    /**
+     * Same, with the prompt prefix of the block the intents come from, see {@link IntentPrompt}.
+     */
+    public Uni<String> determineIntent(String userMessage, List<String> possibleIntents, String promptPrefix) {
+        // Repeats of a message we already classified against the same intents are answered locally
+        IntentCache.Key cacheKey = intentCache.key(userMessage, possibleIntents);
+        String cachedIntent = intentCache.get(cacheKey);
+        if (cachedIntent != null) {
+            return Uni.createFrom().item(cachedIntent);
+        }
+
+        boolean[] leader = new boolean[1];
+        Uni<String> shared = inFlight.computeIfAbsent(cacheKey, key -> {
+            leader[0] = true;
+            Uni<String> call = Uni.createFrom().deferred(() -> {
+                long start = System.nanoTime();
+                Uni<String> classification = batcher.enabled()
+                        ? batcher.classify(userMessage, possibleIntents)
+                        : callGemini(userMessage, possibleIntents, promptPrefix);
+                return classification.onItemOrFailure().invoke((intent, failure) -> {
+                    Timer timer = failure != null ? failed : NO_MATCH.equals(intent) ? noMatch : matched;
+                    timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                });
+            });
+            return call
+                    // Only real answers are cached, a failed call must be retried next time
+                    .invoke(intent -> intentCache.put(key, intent))
+                    // Cached first, removed after, so a late asker finds one or the other
+                    .onTermination().invoke(() -> inFlight.remove(key))
+                    .memoize().indefinitely();
+        });
+        if (!leader[0]) {
+            coalescedCalls.increment();
+        }
+
+        return shared
+                .onFailure().recoverWithItem(failure -> {
+                    LOG.warnf("Intent classification failed, falling back to NO_MATCH: %s", failure.getMessage());
+                    return NO_MATCH;
+                });
+    }
+
+    private Uni<String> callGemini(String userMessage, List<String> possibleIntents, String promptPrefix) {
+        String prompt = IntentPrompt.build(promptPrefix, userMessage);
+
+        // Prompts contain what the user typed, so they are only logged when asked for
+        LOG.debugf("Prompt sent to Gemini: %s", prompt);
 
         Part part = new Part(prompt);
         Content content = new Content(Collections.singletonList(part));
         GeminiRequest request = new GeminiRequest(Collections.singletonList(content));
 
-        return geminiClient.generateContent(apiKey, request)
-                .onFailure().invoke(failure -> {
-                    // LOGGING: STEP 2 (FAILURE)
-                    System.err.println("\n!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-                    System.err.println("[GeminiService] GEMINI API CALL FAILED!");
-                    System.err.println(failure.getMessage());
-                    System.err.println("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!\n");
-                })
-                .onItem().transform(response -> {
-                    String rawText = response.firstTextResult();
-
-                    // LOGGING: STEP 3 (SUCCESS)
-                    System.out.println("\n=========================================================");
-                    System.out.println("[GeminiService] RAW RESPONSE FROM GEMINI:");
-                    System.out.println("'" + rawText + "'");
-                    System.out.println("=========================================================\n");
-
-                    if (rawText == null || rawText.isBlank()) {
-                        System.err.println("[GeminiService] Decision: Gemini returned a blank response. Defaulting to NO_MATCH.");
-                        return "NO_MATCH";
-                    }
-                    String cleanedText = rawText.trim().replace("`", "").replace("\"", "");
-
-                    if (possibleIntents.contains(cleanedText)) {
-                        System.out.println("[GeminiService] Decision: Matched intent '" + cleanedText + "'.");
-                        return cleanedText;
-                    } else {
-                        System.err.println("[GeminiService] Decision: Gemini response '" + cleanedText + "' is not a valid intent. Defaulting to NO_MATCH.");
-                        return "NO_MATCH";
-                    }
-                })
-                .onFailure().recoverWithItem(failure -> {
-                    // This is a fallback in case the failure logging itself fails.
-                    System.err.println("[GeminiService] Recovering from failure, returning NO_MATCH.");
-                    return "NO_MATCH";
-                });
+        return geminiGuard.generateContent(request)
+                .onItem().transform(response -> parseIntent(response.firstTextResult(), possibleIntents));
     }
 
     /**
-     * Constructs the prompt for the LLM with clear instructions.
+     * Turns Gemini's raw answer into one of the possible intents, or NO_MATCH.
      */
-    private String buildPrompt(String userMessage, List<String> possibleIntents) {
-        // Joining the intents
-        String intentsString = possibleIntents.stream()
-                .map(s -> "\"" + s + "\"")
-                .collect(Collectors.joining(", "));
-
-        return "You are an expert intent classifier. Your task is to determine which of the predefined intents best matches the user's message." +
-                " The user's message is: \"" + userMessage + "\"" +
-                " The possible intents are: [" + intentsString + "]." +
-                " Analyze the user's message and respond with ONLY the single, exact string of the best matching intent from the provided list." +
-                " Do not add any explanation, punctuation, or other text." +
-                " If no intent is a clear match, respond with the exact string \"NO_MATCH\".";
+    static String parseIntent(String rawText, List<String> possibleIntents) {
+        LOG.debugf("Raw response from Gemini: '%s'", rawText);
+
+        if (rawText == null || rawText.isBlank()) {
+            LOG.debug("Gemini returned a blank response, defaulting to NO_MATCH");
+            return NO_MATCH;
+        }
+        String cleanedText = rawText.trim().replace("`", "").replace("\"", "");
+
+        if (possibleIntents.contains(cleanedText)) {
+            return cleanedText;
+        }
+        LOG.debugf("Gemini response '%s' is not a valid intent, defaulting to NO_MATCH", cleanedText);
+        return NO_MATCH;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package org.acme.service.gemini;
+
+/**
+ * Gemini was not called at all, because the circuit is open or the concurrency limit is reached.
+ * Callers treat it like any other failure and fall back to NO_MATCH.
+ */
+public class GeminiUnavailableException extends RuntimeException {
+
+    public GeminiUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,88 @@
+package org.acme.service.gemini;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.acme.domain.LocalIntentMatcher;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Remembers what Gemini answered for a message against a given set of intents.
+ * Users repeat themselves a lot ("yes", "talk to an agent"), and a repeat should not cost another LLM call.
+ * Hit, miss and eviction counters are published under the "intent-classification" cache name.
+ */
+@ApplicationScoped
+public class IntentCache {
+
+    public enum ExpiryPolicy {
+        AFTER_WRITE, // Entries expire a fixed time after Gemini answered
+        AFTER_ACCESS // Entries stay as long as they keep being used
+    }
+
+    // A cached answer is only valid for the exact set of intents it was chosen from
+    record Key(String normalizedMessage, List<String> intents) {
+    }
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "gemini.intent-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "gemini.intent-cache.maximum-size", defaultValue = "10000")
+    long maximumSize;
+
+    @ConfigProperty(name = "gemini.intent-cache.expire-after", defaultValue = "10m")
+    Duration expireAfter;
+
+    @ConfigProperty(name = "gemini.intent-cache.expiry-policy", defaultValue = "after-write")
+    ExpiryPolicy expiryPolicy;
+
+    private Cache<Key, String> cache;
+
+    @PostConstruct
+    void init() {
+        // Caffeine evicts by size with W-TinyLFU, so one-off messages don't push out the common phrases
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats();
+        if (expiryPolicy == ExpiryPolicy.AFTER_ACCESS) {
+            builder.expireAfterAccess(expireAfter);
+        } else {
+            builder.expireAfterWrite(expireAfter);
+        }
+        cache = builder.build();
+        CaffeineCacheMetrics.monitor(registry, cache, "intent-classification");
+    }
+
+    public Key key(String userMessage, List<String> possibleIntents) {
+        return new Key(LocalIntentMatcher.normalize(userMessage), possibleIntents);
+    }
+
+    /**
+     * Returns the cached intent for the key, or null if there is none.
+     */
+    public String get(Key key) {
+        return enabled ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(Key key, String intent) {
+        if (enabled) {
+            cache.put(key, intent);
+        }
+    }
+
+    /**
+     * Drops every cached answer. Intended for use in tests to ensure isolation.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,37 @@
+package org.acme.service.intent;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.acme.domain.CompiledBlock;
+import org.acme.domain.IntentBackend;
+import org.acme.service.gemini.GeminiService;
+
+/**
+ * Last stage: asks Gemini. It always answers, with "NO_MATCH" if nothing fits or the call fails.
+ * Blocks with "classifier": "local" get NO_MATCH without a call.
+ */
+@ApplicationScoped
+public class GeminiIntentStage implements IntentStage {
+
+    @Inject
+    GeminiService geminiService;
+
+    @Override
+    public String name() {
+        return "gemini";
+    }
+
+    @Override
+    public int order() {
+        return 100;
+    }
+
+    @Override
+    public Uni<String> resolve(CompiledBlock block, String userMessage) {
+        if (block.classifier() == IntentBackend.LOCAL) {
+            return Uni.createFrom().item("NO_MATCH");
+        }
+        return geminiService.determineIntent(userMessage, block.intents(), block.promptPrefix());
+    }
+}
@@ -0,0 +1,79 @@
+package org.acme.service.intent;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.acme.domain.CompiledBlock;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the intent of a user message by running it through the {@link IntentStage}s in order,
+ * so cheap local matching gets the first chance and only ambiguous messages reach the LLM.
+ * <p>
+ * Every stage records a "chatbot.intent.resolution" timer, tagged with the stage and whether it "resolved" the message
+ * or "passed" it on. The resolved count of the local stage is the number of Gemini calls avoided.
+ */
+@ApplicationScoped
+public class IntentResolver {
+
+    @Inject
+    Instance<IntentStage> stageBeans;
+
+    @Inject
+    MeterRegistry registry;
+
+    private List<IntentStage> stages;
+    private Timer[] resolvedTimers;
+    private Timer[] passedTimers;
+
+    @PostConstruct
+    void init() {
+        stages = stageBeans.stream()
+                .sorted(Comparator.comparingInt(IntentStage::order))
+                .toList();
+        resolvedTimers = new Timer[stages.size()];
+        passedTimers = new Timer[stages.size()];
+        for (int i = 0; i < stages.size(); i++) {
+            resolvedTimers[i] = stageTimer(stages.get(i), "resolved");
+            passedTimers[i] = stageTimer(stages.get(i), "passed");
+        }
+    }
+
+    private Timer stageTimer(IntentStage stage, String outcome) {
+        return Timer.builder("chatbot.intent.resolution")
+                .description("Time spent in an intent resolution stage")
+                .tag("stage", stage.name())
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    public Uni<String> resolve(CompiledBlock block, String userMessage) {
+        return resolveFrom(0, block, userMessage);
+    }
+
+    private Uni<String> resolveFrom(int index, CompiledBlock block, String userMessage) {
+        if (index == stages.size()) {
+            return Uni.createFrom().item("NO_MATCH");
+        }
+        return Uni.createFrom().deferred(() -> {
+            long start = System.nanoTime();
+            return stages.get(index).resolve(block, userMessage)
+                    .chain(intent -> {
+                        long elapsed = System.nanoTime() - start;
+                        if (intent != null) {
+                            resolvedTimers[index].record(elapsed, TimeUnit.NANOSECONDS);
+                            return Uni.createFrom().item(intent);
+                        }
+                        passedTimers[index].record(elapsed, TimeUnit.NANOSECONDS);
+                        return resolveFrom(index + 1, block, userMessage);
+                    });
+        });
+    }
+}
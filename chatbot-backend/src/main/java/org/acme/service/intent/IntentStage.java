@@ -0,0 +1,25 @@
+package org.acme.service.intent;
+
+import io.smallrye.mutiny.Uni;
+import org.acme.domain.CompiledBlock;
+
+/**
+ * One stage of the intent resolution chain.
+ * Stages are tried in ascending {@link #order()}; the first one that answers wins.
+ * Add a stage by providing another CDI bean that implements this interface.
+ */
+public interface IntentStage {
+
+    /**
+     * Short name used in metrics, e.g. "local" or "gemini".
+     */
+    String name();
+
+    int order();
+
+    /**
+     * Resolves the intent of the message for the block.
+     * @return A Uni with the intent (or "NO_MATCH"), or with a null item if this stage can't tell and the next stage should try.
+     */
+    Uni<String> resolve(CompiledBlock block, String userMessage);
+}
@@ -0,0 +1,32 @@
+package org.acme.service.intent;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.domain.CompiledBlock;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * First stage: the block's in-process matcher, built when the flow was uploaded.
+ * Answers obvious messages ("yes", the intent itself, a configured synonym) without any network call.
+ */
+@ApplicationScoped
+public class LocalIntentStage implements IntentStage {
+
+    @ConfigProperty(name = "chatbot.intent.local-matcher.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @Override
+    public String name() {
+        return "local";
+    }
+
+    @Override
+    public int order() {
+        return 0;
+    }
+
+    @Override
+    public Uni<String> resolve(CompiledBlock block, String userMessage) {
+        return Uni.createFrom().item(enabled ? block.matcher().match(userMessage) : null);
+    }
+}
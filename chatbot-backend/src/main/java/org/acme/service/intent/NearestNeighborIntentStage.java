@@ -0,0 +1,46 @@
+package org.acme.service.intent;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.domain.CompiledBlock;
+import org.acme.domain.IntentBackend;
+import org.acme.domain.NearestIntentIndex;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Second stage: the block's example messages, see {@link NearestIntentIndex}. Runs in-process, offline.
+ * Answers when the message is at least min-similarity close to an example, and passes it on to Gemini otherwise,
+ * except for "classifier": "local" blocks, which never go past this stage.
+ */
+@ApplicationScoped
+public class NearestNeighborIntentStage implements IntentStage {
+
+    @ConfigProperty(name = "chatbot.intent.nearest-neighbor.enabled", defaultValue = "true")
+    boolean enabled;
+
+    // Cosine similarity to the closest example, for blocks that don't set their own "minSimilarity"
+    @ConfigProperty(name = "chatbot.intent.nearest-neighbor.min-similarity", defaultValue = "0.6")
+    double minSimilarity;
+
+    @Override
+    public String name() {
+        return "nearest-neighbor";
+    }
+
+    @Override
+    public int order() {
+        return 50;
+    }
+
+    @Override
+    public Uni<String> resolve(CompiledBlock block, String userMessage) {
+        if (!enabled || block.classifier() == IntentBackend.GEMINI) {
+            return Uni.createFrom().nullItem();
+        }
+        NearestIntentIndex.Match match = block.examples().nearest(userMessage);
+        if (match != null && match.similarity() >= block.examples().minSimilarity(minSimilarity)) {
+            return Uni.createFrom().item(match.intent());
+        }
+        return Uni.createFrom().nullItem();
+    }
+}
@@ -0,0 +1,220 @@
+package org.acme.service.outbound;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the bot's replies, through one {@link SessionOutbox} per session.
+ * <p>
+ * With coalesce-replies the messages of one turn go out as a single frame. Frames are plain text, or with json-envelope
+ * {"messages":[{"text":...,"blockId":...}]}. A session may have max-pending-bytes waiting; what happens to a client that
+ * reads slower than that is the slow-consumer policy: drop the new frame, close the connection, or pause, which stops
+ * handling the session's messages until its frames have drained.
+ * <p>
+ * Metrics: chatbot.websocket.send{result}, chatbot.websocket.send-queue.frames/bytes (all sessions),
+ * chatbot.websocket.send-queue.depth (frames ahead of each new one) and chatbot.websocket.slow-consumer{action}.
+ */
+@ApplicationScoped
+public class OutboundChannels {
+
+    private static final Logger LOG = Logger.getLogger(OutboundChannels.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // The session's outbox, kept with the session so it goes away with it
+    private static final String OUTBOX = "chatbot.outbox";
+
+    public enum SlowConsumerPolicy {
+        DROP,
+        CLOSE,
+        PAUSE
+    }
+
+    @ConfigProperty(name = "chatbot.websocket.coalesce-replies", defaultValue = "false")
+    boolean coalesceReplies;
+
+    @ConfigProperty(name = "chatbot.websocket.json-envelope", defaultValue = "false")
+    boolean jsonEnvelope;
+
+    @ConfigProperty(name = "chatbot.websocket.max-pending-bytes", defaultValue = "1048576")
+    long maxPendingBytes;
+
+    @ConfigProperty(name = "chatbot.websocket.slow-consumer", defaultValue = "drop")
+    SlowConsumerPolicy slowConsumer;
+
+    @Inject
+    MeterRegistry registry;
+
+    final AtomicLong queuedFrames = new AtomicLong();
+    final AtomicLong pendingBytes = new AtomicLong();
+    private Timer sendSucceeded;
+    private Timer sendFailed;
+    private DistributionSummary queueDepth;
+    private Counter dropped;
+    private Counter closed;
+    private Counter paused;
+
+    OutboundChannels() {
+        // For CDI
+    }
+
+    public OutboundChannels(boolean coalesceReplies, boolean jsonEnvelope, long maxPendingBytes, SlowConsumerPolicy slowConsumer,
+                            MeterRegistry registry) {
+        this.coalesceReplies = coalesceReplies;
+        this.jsonEnvelope = jsonEnvelope;
+        this.maxPendingBytes = maxPendingBytes;
+        this.slowConsumer = slowConsumer;
+        this.registry = registry;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        sendSucceeded = sendTimer("ok");
+        sendFailed = sendTimer("error");
+        Gauge.builder("chatbot.websocket.send-queue.frames", queuedFrames, AtomicLong::get)
+                .description("Frames waiting behind the one in flight, over all sessions")
+                .register(registry);
+        Gauge.builder("chatbot.websocket.send-queue.bytes", pendingBytes, AtomicLong::get)
+                .description("Frames queued or in flight, over all sessions")
+                .baseUnit("bytes")
+                .register(registry);
+        queueDepth = DistributionSummary.builder("chatbot.websocket.send-queue.depth")
+                .description("Frames ahead of a new frame in its session's queue, the one in flight included")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        dropped = slowConsumerCounter("dropped");
+        closed = slowConsumerCounter("closed");
+        paused = slowConsumerCounter("paused");
+    }
+
+    private Timer sendTimer(String result) {
+        return Timer.builder("chatbot.websocket.send")
+                .description("From handing a frame to the WebSocket until the send completed")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private Counter slowConsumerCounter(String action) {
+        return Counter.builder("chatbot.websocket.slow-consumer")
+                .description("Times a session had max-pending-bytes waiting and the slow-consumer policy kicked in")
+                .tag("action", action)
+                .register(registry);
+    }
+
+    /**
+     * Sends the replies of one turn, in order.
+     */
+    public void send(Session session, List<Reply> replies) {
+        if (replies.isEmpty()) {
+            return;
+        }
+        // A session's sends all come from its mailbox, one at a time, so creating the outbox can't race
+        SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get(OUTBOX);
+        if (outbox == null) {
+            outbox = new SessionOutbox(session, maxPendingBytes, this);
+            session.getUserProperties().put(OUTBOX, outbox);
+        }
+        if (coalesceReplies || replies.size() == 1) {
+            offer(session, outbox, frame(replies));
+        } else {
+            for (Reply reply : replies) {
+                offer(session, outbox, frame(List.of(reply)));
+            }
+        }
+    }
+
+    private void offer(Session session, SessionOutbox outbox, String frame) {
+        if (outbox.offer(frame, slowConsumer == SlowConsumerPolicy.PAUSE)) {
+            return;
+        }
+        if (slowConsumer == SlowConsumerPolicy.CLOSE) {
+            closed.increment();
+            LOG.debugf("Closing session %s, it has over %d bytes waiting", session.getId(), maxPendingBytes);
+            outbox.close();
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Not reading fast enough"));
+            } catch (IOException e) {
+                LOG.debugf(e, "Could not close session %s", session.getId());
+            }
+        } else {
+            dropped.increment();
+            LOG.debugf("Dropped a frame for session %s, it has over %d bytes waiting", session.getId(), maxPendingBytes);
+        }
+    }
+
+    /**
+     * Completes once the session can take more frames. Only the pause policy ever has to wait here,
+     * the session's next message isn't handled until then.
+     */
+    public Uni<Void> whenWritable(Session session) {
+        SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get(OUTBOX);
+        if (outbox == null || !outbox.isAboveCap()) {
+            return Uni.createFrom().voidItem();
+        }
+        paused.increment();
+        return Uni.createFrom().completionStage(outbox::whenWritable).replaceWithVoid();
+    }
+
+    /**
+     * Forgets a closed session, along with any frames it didn't get.
+     */
+    public void close(Session session) {
+        SessionOutbox outbox = (SessionOutbox) session.getUserProperties().remove(OUTBOX);
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    private String frame(List<Reply> replies) {
+        if (jsonEnvelope) {
+            try {
+                return MAPPER.writeValueAsString(Map.of("messages", replies));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Could not write the replies as JSON", e);
+            }
+        }
+        if (replies.size() == 1) {
+            return replies.get(0).text();
+        }
+        StringBuilder frame = new StringBuilder();
+        for (Reply reply : replies) {
+            if (!frame.isEmpty()) {
+                frame.append('\n');
+            }
+            frame.append(reply.text());
+        }
+        return frame.toString();
+    }
+
+    void queued(int depth, int bytes) {
+        queueDepth.record(depth);
+        pendingBytes.addAndGet(bytes);
+    }
+
+    void sent(Session session, long start, Throwable failure) {
+        if (failure == null) {
+            sendSucceeded.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } else {
+            sendFailed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            LOG.warnf(failure, "Error sending message to %s", session.getId());
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.acme.service.outbound;
+
+/**
+ * One message from the bot, and the block that said it (null for errors that belong to no block).
+ */
+public record Reply(String text, String blockId) {
+}
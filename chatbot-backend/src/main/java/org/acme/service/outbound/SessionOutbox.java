@@ -0,0 +1,172 @@
+package org.acme.service.outbound;
+
+import jakarta.websocket.Session;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The frames on their way to one session. Only one send is in flight at a time, the rest wait here in order,
+ * so a client that stops reading shows up as a growing queue instead of a pile of pending async sends.
+ * Sizes are counted in characters, which is bytes for ASCII text.
+ */
+final class SessionOutbox {
+
+    private static final CompletableFuture<Void> WRITABLE = CompletableFuture.completedFuture(null);
+
+    private final Session session;
+    private final long maxPendingBytes;
+    private final OutboundChannels channels;
+
+    // All guarded by this
+    private final Queue<String> queue = new ArrayDeque<>();
+    private long pendingBytes; // Queued and in flight
+    private boolean sending;
+    private boolean closed;
+    private CompletableFuture<Void> writable; // While above the cap and someone waits for it to drain
+
+    SessionOutbox(Session session, long maxPendingBytes, OutboundChannels channels) {
+        this.session = session;
+        this.maxPendingBytes = maxPendingBytes;
+        this.channels = channels;
+    }
+
+    /**
+     * Queues a frame, and sends it right away if nothing is in flight. Returns false, without queueing it, if it would take
+     * the session above its cap and {@code overCap} isn't set. A frame is always taken when nothing is pending, however large.
+     * Frames for a closed outbox are dropped quietly.
+     */
+    boolean offer(String frame, boolean overCap) {
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            if (!overCap && pendingBytes > 0 && pendingBytes + frame.length() > maxPendingBytes) {
+                return false;
+            }
+            channels.queued(queue.size() + (sending ? 1 : 0), frame.length());
+            pendingBytes += frame.length();
+            if (sending) {
+                queue.add(frame);
+                channels.queuedFrames.incrementAndGet();
+                return true;
+            }
+            sending = true;
+        }
+        send(frame);
+        return true;
+    }
+
+    /**
+     * Completes once the pending frames are within the cap again, or the outbox was closed.
+     */
+    synchronized CompletionStage<Void> whenWritable() {
+        if (closed || pendingBytes <= maxPendingBytes) {
+            return WRITABLE;
+        }
+        if (writable == null) {
+            writable = new CompletableFuture<>();
+        }
+        return writable;
+    }
+
+    synchronized boolean isAboveCap() {
+        return pendingBytes > maxPendingBytes;
+    }
+
+    /**
+     * Drops the frames that haven't been sent yet. The one in flight still completes.
+     */
+    void close() {
+        CompletableFuture<Void> waiting;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long dropped = 0;
+            for (String frame : queue) {
+                dropped += frame.length();
+            }
+            pendingBytes -= dropped;
+            channels.queuedFrames.addAndGet(-queue.size());
+            channels.pendingBytes.addAndGet(-dropped);
+            queue.clear();
+            waiting = writable;
+            writable = null;
+        }
+        if (waiting != null) {
+            waiting.complete(null);
+        }
+    }
+
+    // A container may complete a send before sendText returns. The next frame is then sent by the loop here rather than
+    // from inside the callback, so a run of such sends doesn't grow the stack.
+    private void send(String frame) {
+        while (frame != null) {
+            Completion completion = new Completion(frame);
+            try {
+                session.getAsyncRemote().sendText(frame, result -> completion.done(result.isOK() ? null : result.getException()));
+            } catch (RuntimeException e) {
+                completion.done(e);
+            }
+            frame = completion.continueHere();
+        }
+    }
+
+    // What is left to send after a frame went out, null if nothing
+    private String sent(String frame, long start, Throwable failure) {
+        channels.sent(session, start, failure);
+        String next;
+        CompletableFuture<Void> nowWritable = null;
+        synchronized (this) {
+            pendingBytes -= frame.length();
+            channels.pendingBytes.addAndGet(-frame.length());
+            next = queue.poll();
+            if (next == null) {
+                sending = false;
+            } else {
+                channels.queuedFrames.decrementAndGet();
+            }
+            if (writable != null && pendingBytes <= maxPendingBytes) {
+                nowWritable = writable;
+                writable = null;
+            }
+        }
+        if (nowWritable != null) {
+            nowWritable.complete(null);
+        }
+        return next;
+    }
+
+    private final class Completion {
+        private static final int PENDING = 0;
+        private static final int DONE_INLINE = 1;
+        private static final int RETURNED = 2;
+
+        private final String frame;
+        private final long start = System.nanoTime();
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private String next;
+
+        Completion(String frame) {
+            this.frame = frame;
+        }
+
+        void done(Throwable failure) {
+            next = sent(frame, start, failure);
+            if (!state.compareAndSet(PENDING, DONE_INLINE)) {
+                // sendText has returned already, so this callback carries on
+                send(next);
+            }
+        }
+
+        // Called once sendText returned: the next frame if the send already completed, null if its callback will take care of it
+        String continueHere() {
+            return state.compareAndSet(PENDING, RETURNED) ? null : next;
+        }
+    }
+}
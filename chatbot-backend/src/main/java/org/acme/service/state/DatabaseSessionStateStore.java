@@ -0,0 +1,190 @@
+package org.acme.service.state;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.Reception;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import org.acme.persistence.ConversationState;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps conversation state in the database, so a client can resume its conversation on any node.
+ * <p>
+ * The attached conversations are cached locally ({@link SessionStateCache}) and turns only ever read that cache. Changes are written behind:
+ * every flush interval, the latest block of each changed conversation is written in one transaction,
+ * so a conversation that moves several times in between costs a single row update.
+ * A client that reconnects to another node within that interval may still see the previous block.
+ * <p>
+ * Only conversations a client can come back to, the ones it gave an id, are written at all. Every hour, rows that
+ * weren't updated for the retention are deleted, so conversations that ended or were abandoned don't pile up.
+ * <p>
+ * Metrics: chatbot.session-state.write (one sample per flush), chatbot.session-state.pending and chatbot.session-state.expired.
+ */
+@ApplicationScoped
+@Typed(DatabaseSessionStateStore.class) // Picked by SessionStateStoreProducer, not injected as a SessionStateStore directly
+public class DatabaseSessionStateStore implements SessionStateStore {
+
+    private static final Logger LOG = Logger.getLogger(DatabaseSessionStateStore.class);
+
+    @ConfigProperty(name = "chatbot.session-state.flush-interval", defaultValue = "200ms")
+    Duration flushInterval;
+
+    @ConfigProperty(name = "chatbot.session-state.retention", defaultValue = "30d")
+    Duration retention;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    SessionStateCache local;
+
+    // Changes not written yet, only the latest block per conversation
+    private final Map<String, String> dirty = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+    private Timer writeTimer;
+    private Counter expired;
+
+    @PostConstruct
+    void init() {
+        writeTimer = Timer.builder("chatbot.session-state.write")
+                .description("Writing the changed conversation states of one flush interval, transaction included")
+                .register(registry);
+        Gauge.builder("chatbot.session-state.pending", dirty, Map::size)
+                .description("Conversations whose latest state is not in the database yet")
+                .register(registry);
+        expired = Counter.builder("chatbot.session-state.expired")
+                .description("Stored conversations deleted because they weren't updated for the retention")
+                .register(registry);
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-state-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = flushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::deleteExpired, 1, 60, TimeUnit.MINUTES);
+    }
+
+    // Only if the store was ever used, observing the event must not create it
+    void onStop(@Observes(notifyObserver = Reception.IF_EXISTS) ShutdownEvent event) {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    @Override
+    public String attach(String conversationId) {
+        String blockId = local.get(conversationId);
+        if (blockId == null) {
+            // Detached recently and not written yet, the pending change is newer than the database
+            blockId = dirty.get(conversationId);
+        }
+        if (blockId == null) {
+            ConversationState state = QuarkusTransaction.requiringNew().call(() -> ConversationState.findById(conversationId));
+            blockId = state != null ? state.blockId : null;
+        }
+        if (blockId != null) {
+            local.put(conversationId, blockId);
+        }
+        return blockId;
+    }
+
+    @Override
+    public String get(String conversationId) {
+        return local.get(conversationId);
+    }
+
+    @Override
+    public String put(String conversationId, String blockId, boolean resumable) {
+        String previous = local.put(conversationId, blockId);
+        // Nobody could ever attach a conversation without an id of its own again, a row for it would only be garbage
+        if (resumable && !blockId.equals(previous)) {
+            dirty.put(conversationId, blockId);
+        }
+        return previous;
+    }
+
+    @Override
+    public String detach(String conversationId) {
+        // A pending change stays in 'dirty' and is still written
+        return local.remove(conversationId);
+    }
+
+    @Override
+    public void onEvicted(BiConsumer<String, String> listener) {
+        // Evicting only drops the local copy, the conversation can be attached again from the database
+        local.onEvicted(listener);
+    }
+
+    /**
+     * Writes all pending changes now.
+     */
+    public synchronized void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        // Changes stay in 'dirty' until they are committed, so attach() never misses one that is being written
+        Map<String, String> batch = new HashMap<>(dirty);
+        long start = System.nanoTime();
+        try {
+            QuarkusTransaction.requiringNew().run(() -> write(batch));
+            // Only if the conversation hasn't moved on in the meantime, a newer block goes out with the next flush
+            batch.forEach(dirty::remove);
+        } catch (Exception e) {
+            LOG.errorf(e, "Failed to write the state of %d conversations, retrying with the next flush", batch.size());
+        } finally {
+            writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Deletes the stored conversations that weren't updated for the retention.
+     */
+    public void deleteExpired() {
+        try {
+            Instant before = Instant.now().minus(retention);
+            long deleted = QuarkusTransaction.requiringNew().call(() -> ConversationState.delete("updatedAt < ?1", before));
+            expired.increment(deleted);
+            if (deleted > 0) {
+                LOG.debugf("Deleted %d conversation states not updated since %s", deleted, before);
+            }
+        } catch (Exception e) {
+            LOG.errorf(e, "Failed to delete expired conversation states, retrying in an hour");
+        }
+    }
+
+    private static void write(Map<String, String> batch) {
+        Map<String, String> inserts = new HashMap<>(batch);
+        Instant now = Instant.now();
+        List<ConversationState> existing = ConversationState.list("conversationId in ?1", batch.keySet());
+        for (ConversationState state : existing) {
+            state.blockId = inserts.remove(state.conversationId);
+            state.updatedAt = now;
+        }
+        inserts.forEach((conversationId, blockId) -> new ConversationState(conversationId, blockId).persist());
+    }
+}
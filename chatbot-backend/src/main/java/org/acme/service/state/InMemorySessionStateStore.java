@@ -0,0 +1,52 @@
+package org.acme.service.state;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps conversations on this node only. A conversation ends with its connection, or when it is evicted, there is nothing to resume.
+ */
+@ApplicationScoped
+@Typed(InMemorySessionStateStore.class) // Picked by SessionStateStoreProducer, not injected as a SessionStateStore directly
+public class InMemorySessionStateStore implements SessionStateStore {
+
+    @Inject
+    SessionStateCache states;
+
+    InMemorySessionStateStore() {
+        // For CDI
+    }
+
+    public InMemorySessionStateStore(SessionStateCache states) {
+        this.states = states;
+    }
+
+    @Override
+    public String attach(String conversationId) {
+        // Only another open connection to the same conversation could have left something behind
+        return states.get(conversationId);
+    }
+
+    @Override
+    public String get(String conversationId) {
+        return states.get(conversationId);
+    }
+
+    @Override
+    public String put(String conversationId, String blockId, boolean resumable) {
+        return states.put(conversationId, blockId);
+    }
+
+    @Override
+    public String detach(String conversationId) {
+        return states.remove(conversationId);
+    }
+
+    @Override
+    public void onEvicted(BiConsumer<String, String> listener) {
+        states.onEvicted(listener);
+    }
+}
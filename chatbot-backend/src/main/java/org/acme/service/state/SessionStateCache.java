@@ -0,0 +1,124 @@
+package org.acme.service.state;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.Dependent;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * This node's copy of the conversation states, bounded so memory stays flat however long the node runs,
+ * even when connections vanish without a close.
+ * A conversation that wasn't looked at for idle-ttl expires. Above max-tracked, the least recently active ones go first;
+ * unlike the W-TinyLFU size policy this never turns away a conversation that just started.
+ * <p>
+ * Metrics: chatbot.sessions.tracked and chatbot.sessions.evicted{cause=expired|size}.
+ */
+@Dependent
+public class SessionStateCache {
+
+    @ConfigProperty(name = "chatbot.sessions.idle-ttl", defaultValue = "30m")
+    Duration idleTtl;
+
+    @ConfigProperty(name = "chatbot.sessions.max-tracked", defaultValue = "100000")
+    long maxTracked;
+
+    @Inject
+    MeterRegistry registry;
+
+    private Cache<String, String> states;
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evictedForSize = new LongAdder();
+    private volatile BiConsumer<String, String> evictionListener = (conversationId, blockId) -> {
+    };
+
+    SessionStateCache() {
+        // For CDI
+    }
+
+    public SessionStateCache(Duration idleTtl, long maxTracked, MeterRegistry registry) {
+        this.idleTtl = idleTtl;
+        this.maxTracked = maxTracked;
+        this.registry = registry;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        states = Caffeine.newBuilder()
+                .expireAfterAccess(idleTtl)
+                // Expire on time even when there is no traffic to piggyback on
+                .scheduler(Scheduler.systemScheduler())
+                // Keep the access order up to date on the caller's thread. With the default, a read of a conversation whose insert
+                // is still buffered is dropped, and trim() would take a just-active conversation for the least active one.
+                .executor(Runnable::run)
+                .<String, String>evictionListener((conversationId, blockId, cause) -> {
+                    if (cause == RemovalCause.EXPIRED) {
+                        expired.increment();
+                        evictionListener.accept(conversationId, blockId);
+                    }
+                })
+                .build();
+        Gauge.builder("chatbot.sessions.tracked", states, Cache::estimatedSize)
+                .description("Conversation states kept in this node's memory")
+                .register(registry);
+        FunctionCounter.builder("chatbot.sessions.evicted", expired, LongAdder::sum)
+                .description("Sessions dropped without the client closing them")
+                .tag("cause", "expired")
+                .register(registry);
+        FunctionCounter.builder("chatbot.sessions.evicted", evictedForSize, LongAdder::sum)
+                .description("Sessions dropped without the client closing them")
+                .tag("cause", "size")
+                .register(registry);
+    }
+
+    /**
+     * Called with the conversation id and its block for every state that expired or was pushed out.
+     */
+    void onEvicted(BiConsumer<String, String> listener) {
+        this.evictionListener = listener;
+    }
+
+    String get(String conversationId) {
+        return states.getIfPresent(conversationId);
+    }
+
+    String put(String conversationId, String blockId) {
+        String previous = states.asMap().put(conversationId, blockId);
+        if (previous == null && states.estimatedSize() > maxTracked) {
+            trim();
+        }
+        return previous;
+    }
+
+    String remove(String conversationId) {
+        return states.asMap().remove(conversationId);
+    }
+
+    private void trim() {
+        // Reads are recorded in a buffer first, apply them before asking for the oldest
+        states.cleanUp();
+        long excess = states.estimatedSize() - maxTracked;
+        if (excess <= 0) {
+            return;
+        }
+        Map<String, String> oldest = states.policy().expireAfterAccess().orElseThrow().oldest((int) excess);
+        oldest.forEach((conversationId, blockId) -> {
+            if (states.asMap().remove(conversationId, blockId)) {
+                evictedForSize.increment();
+                evictionListener.accept(conversationId, blockId);
+            }
+        });
+    }
+}
@@ -0,0 +1,60 @@
+package org.acme.service.state;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps track of which block each conversation is waiting at.
+ * Lookups during a turn ({@link #get}) are always answered from this node's memory; a store that shares state
+ * between nodes loads it once, when a connection {@link #attach}es to the conversation.
+ * A conversation is meant to have one connection at a time: when any of them detaches, the local copy is gone.
+ * <p>
+ * Conversations are identified by their {@link #key}, the flow and the conversation id together,
+ * so a client reusing a conversation id with another flow never lands on a block of the first one.
+ */
+public interface SessionStateStore {
+
+    /**
+     * The id a conversation of a flow is stored under. Flow ids can't contain ':', see ConfigService.
+     */
+    static String key(String flowId, String conversationId) {
+        return flowId + ':' + conversationId;
+    }
+
+    /**
+     * The flow of a {@link #key}.
+     */
+    static String flowIdOf(String key) {
+        return key.substring(0, key.indexOf(':'));
+    }
+
+    /**
+     * Called when a connection opens for the conversation.
+     * @return The block the conversation was waiting at before, or null if it is a new conversation.
+     */
+    String attach(String conversationId);
+
+    /**
+     * @return The block the conversation is waiting at, or null if there is none.
+     */
+    String get(String conversationId);
+
+    /**
+     * Records the block the conversation now waits at.
+     * @param resumable Whether a client can come back to the conversation later, only then does a durable store keep it.
+     * @return The block it was waiting at before, or null.
+     */
+    String put(String conversationId, String blockId, boolean resumable);
+
+    /**
+     * Called when the connection is gone. The local copy is dropped; a durable store keeps the state so the conversation can be resumed.
+     * @return The block the conversation was waiting at, or null.
+     */
+    String detach(String conversationId);
+
+    /**
+     * Registers a callback for conversations dropped from this node's memory while their connection may still be open,
+     * because they were idle too long or the node tracks too many. It gets the conversation id and the block it was waiting at.
+     * A durable store can still {@link #attach} them again.
+     */
+    void onEvicted(BiConsumer<String, String> listener);
+}
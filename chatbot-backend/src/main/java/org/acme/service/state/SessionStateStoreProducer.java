@@ -0,0 +1,34 @@
+package org.acme.service.state;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Provides the {@link SessionStateStore} selected with chatbot.session-state.store.
+ */
+@ApplicationScoped
+public class SessionStateStoreProducer {
+
+    public enum Kind {
+        MEMORY,
+        DATABASE
+    }
+
+    @ConfigProperty(name = "chatbot.session-state.store", defaultValue = "memory")
+    Kind kind;
+
+    @Inject
+    Instance<InMemorySessionStateStore> memoryStore;
+
+    @Inject
+    Instance<DatabaseSessionStateStore> databaseStore;
+
+    @Produces
+    @ApplicationScoped
+    SessionStateStore sessionStateStore() {
+        return kind == Kind.DATABASE ? databaseStore.get() : memoryStore.get();
+    }
+}
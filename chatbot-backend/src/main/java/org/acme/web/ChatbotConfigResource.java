@@ -1,60 +1,148 @@
 package org.acme.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledFlow;
+import org.acme.domain.FlowReader;
+import org.acme.domain.FlowIssue;
+import org.acme.domain.FlowValidationException;
+import org.acme.persistence.FlowSummary;
 import org.acme.service.ConfigService;
 
+import java.io.InputStream;
+import java.util.List;
+
 @Path("/api/config")
 @Produces(MediaType.APPLICATION_JSON) // All methods in this class will return JSON
 @Consumes(MediaType.APPLICATION_JSON) // All methods in this class expect JSON
 public class ChatbotConfigResource {
 
+    /**
+     * The body of a 400 for a flow that failed validation. Lists the first problems, issueCount says how many there are.
+     */
+    public record ValidationErrors(String error, int issueCount, List<FlowIssue> issues) {
+    }
+
     @Inject // This tells Quarkus to automatically inject the ConfigService instance
     ConfigService configService;
 
+    @Inject
+    ObjectMapper objectMapper;
+
     /**
      * Endpoint to upload a new or updated JSON configuration.
+     * The body is read as a stream and every block is compiled as it arrives, see {@link FlowReader}.
      * HTTP Method: POST
      * URL: /api/config
      */
     @POST
-    public Response uploadConfig(ChatbotFlow flow) {
+    public Response uploadConfig(InputStream body) {
+        return store(body, null);
+    }
+
+    /**
+     * Endpoint to get the current JSON configuration.
+     * HTTP Method: GET
+     * URL: /api/config
+     */
+    @GET
+    public Response getConfig() {
+        return found(configService.getFlow());
+    }
+
+    /**
+     * Endpoint to list all flows, without their blocks.
+     * HTTP Method: GET
+     * URL: /api/config/flows
+     */
+    @GET
+    @Path("/flows")
+    public List<FlowSummary> listFlows() {
+        return configService.listFlows();
+    }
+
+    /**
+     * Endpoint to get one flow's JSON configuration.
+     * HTTP Method: GET
+     * URL: /api/config/flows/{flowId}
+     */
+    @GET
+    @Path("/flows/{flowId}")
+    public Response getFlow(@PathParam("flowId") String flowId) {
+        return found(configService.getFlow(flowId));
+    }
+
+    /**
+     * Endpoint to create or replace one flow. The flowId in the body may be left out, but must match the URL if it is there.
+     * HTTP Method: PUT
+     * URL: /api/config/flows/{flowId}
+     */
+    @PUT
+    @Path("/flows/{flowId}")
+    public Response putFlow(@PathParam("flowId") String flowId, InputStream body) {
+        return store(body, flowId);
+    }
+
+    /**
+     * Endpoint to delete one flow. Conversations already running on it can finish.
+     * HTTP Method: DELETE
+     * URL: /api/config/flows/{flowId}
+     */
+    @DELETE
+    @Path("/flows/{flowId}")
+    public Response deleteFlow(@PathParam("flowId") String flowId) {
+        if (configService.deleteFlow(flowId)) {
+            return Response.noContent().build();
+        }
+        return notFound();
+    }
+
+    private Response store(InputStream body, String flowId) {
         try {
-            configService.updateFlow(flow);
+            CompiledFlow flow = FlowReader.read(body, objectMapper, flowId);
+            if (flowId != null && flow != null && !flowId.equals(flow.flowId())) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity(new ErrorMessage("The flowId in the body doesn't match the URL."))
+                        .build();
+            }
+            configService.updateCompiledFlow(flow);
             // Return a 200 OK response with a simple success message
             return Response.ok("{\"status\":\"success\"}").build();
+        } catch (FlowValidationException e) {
+            // A 400 that lists what is wrong, so the whole flow can be fixed in one go
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new ValidationErrors(e.getMessage(), e.issueCount(), e.issues()))
+                    .build();
         } catch (IllegalArgumentException e) {
             // If the flow is invalid, return a 400 Bad Request
             return Response.status(Response.Status.BAD_REQUEST)
-                    .entity("{\"error\":\"" + e.getMessage() + "\"}")
+                    .entity(new ErrorMessage(e.getMessage()))
                     .build();
         } catch (Exception e) {
             // For any other unexpected errors, 500 Internal Server Error
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("{\"error\":\"An unexpected error occurred.\"}")
+                    .entity(new ErrorMessage("An unexpected error occurred."))
                     .build();
         }
     }
 
-    /**
-     * Endpoint to get the current JSON configuration.
-     * HTTP Method: GET
-     * URL: /api/config
-     */
-    @GET
-    public Response getConfig() {
-        ChatbotFlow currentFlow = configService.getFlow();
-        if (currentFlow != null) {
+    private static Response found(ChatbotFlow flow) {
+        if (flow != null) {
             // If a flow exists - 200 OK status
-            return Response.ok(currentFlow).build();
+            return Response.ok(flow).build();
         } else {
             // If no flow has been configured - 404 Not Found status
-            return Response.status(Response.Status.NOT_FOUND)
-                    .entity("{\"error\":\"Configuration not found.\"}")
-                    .build();
+            return notFound();
         }
     }
-}
\ No newline at end of file
+
+    private static Response notFound() {
+        return Response.status(Response.Status.NOT_FOUND)
+                .entity(new ErrorMessage("Configuration not found."))
+                .build();
+    }
+}
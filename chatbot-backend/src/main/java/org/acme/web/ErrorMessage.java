@@ -0,0 +1,7 @@
+package org.acme.web;
+
+/**
+ * The body of an error response, {"error": "..."}. Written by Jackson, so any message is escaped properly.
+ */
+public record ErrorMessage(String error) {
+}
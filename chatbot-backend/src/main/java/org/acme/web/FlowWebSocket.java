@@ -0,0 +1,49 @@
+package org.acme.web;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.websocket.OnClose;
+import jakarta.websocket.OnError;
+import jakarta.websocket.OnMessage;
+import jakarta.websocket.OnOpen;
+import jakarta.websocket.PongMessage;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.ServerEndpoint;
+
+/**
+ * The chat endpoint for one flow, /chatbot/{flowId}. Everything else is the same as on {@link StartWebSocket}, which
+ * handles these connections too, so all of them share one set of mailboxes, liveness checks and metrics.
+ */
+@ServerEndpoint("/chatbot/{flowId}")
+@ApplicationScoped
+public class FlowWebSocket {
+
+    @Inject
+    StartWebSocket chat;
+
+    @OnOpen
+    public void onOpen(Session session) {
+        // The flowId is in the session's path parameters
+        chat.onOpen(session);
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        chat.onClose(session);
+    }
+
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        chat.onMessage(message, session);
+    }
+
+    @OnMessage
+    public void onPong(PongMessage pong, Session session) {
+        chat.onPong(pong, session);
+    }
+
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+        chat.onError(session, throwable);
+    }
+}
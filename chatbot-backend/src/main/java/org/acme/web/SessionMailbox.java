@@ -0,0 +1,107 @@
+package org.acme.web;
+
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A serial executor for the events of one WebSocket session.
+ * Events are handled one at a time and in arrival order, and the next event only starts once the Uni of the previous one
+ * has completed. There is no lock per message and no thread per session: posting is a queue offer plus an atomic increment,
+ * and only the post that finds the mailbox idle submits a drain task to the shared executor.
+ */
+final class SessionMailbox {
+
+    private static final Logger LOG = Logger.getLogger(SessionMailbox.class);
+
+    enum EventType {
+        OPEN,
+        MESSAGE,
+        CLOSE
+    }
+
+    record Event(EventType type, String message) {
+
+        static Event open() {
+            return new Event(EventType.OPEN, null);
+        }
+
+        static Event message(String message) {
+            return new Event(EventType.MESSAGE, message);
+        }
+
+        static Event close() {
+            return new Event(EventType.CLOSE, null);
+        }
+    }
+
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    // Number of posted events that haven't been handled yet. The mailbox is idle when this is 0.
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Executor executor;
+    private final boolean coalesceMessages;
+    private final Function<Event, Uni<Void>> handler;
+
+    SessionMailbox(Executor executor, boolean coalesceMessages, Function<Event, Uni<Void>> handler) {
+        this.executor = executor;
+        this.coalesceMessages = coalesceMessages;
+        this.handler = handler;
+    }
+
+    void post(Event event) {
+        queue.offer(event);
+        if (pending.getAndIncrement() == 0) {
+            executor.execute(this::drainNext);
+        }
+    }
+
+    private void drainNext() {
+        Event event = queue.poll();
+        int taken = 1;
+        if (coalesceMessages && event.type() == EventType.MESSAGE) {
+            // Messages that piled up while the previous turn was in flight are classified together, in one call.
+            // We only look at events that are already counted, so 'pending' never drops below what is still queued.
+            StringBuilder merged = null;
+            int available = pending.get() - 1;
+            while (available-- > 0 && queue.peek() != null && queue.peek().type() == EventType.MESSAGE) {
+                if (merged == null) {
+                    merged = new StringBuilder(event.message());
+                }
+                merged.append('\n').append(queue.poll().message());
+                taken++;
+            }
+            if (merged != null) {
+                event = Event.message(merged.toString());
+            }
+        }
+
+        Uni<Void> work;
+        try {
+            work = handler.apply(event);
+        } catch (RuntimeException e) {
+            work = Uni.createFrom().failure(e);
+        }
+
+        int handled = taken;
+        EventType type = event.type();
+        work.subscribe().with(
+                ignored -> finish(handled),
+                failure -> {
+                    // A failed event must not stall the rest of the session's queue
+                    LOG.errorf(failure, "Error handling %s event", type);
+                    finish(handled);
+                });
+    }
+
+    private void finish(int handled) {
+        if (pending.addAndGet(-handled) > 0) {
+            // Always hop back to the executor, the Uni may have completed on an I/O thread
+            executor.execute(this::drainNext);
+        }
+    }
+}
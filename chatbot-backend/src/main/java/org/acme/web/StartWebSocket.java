@@ -1,48 +1,271 @@
 package org.acme.web;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.websocket.CloseReason;
 import jakarta.websocket.OnClose;
+import jakarta.websocket.OnError;
 import jakarta.websocket.OnMessage;
 import jakarta.websocket.OnOpen;
+import jakarta.websocket.PongMessage;
 import jakarta.websocket.Session;
 import jakarta.websocket.server.ServerEndpoint;
 import org.acme.service.ChatbotService;
-import org.eclipse.microprofile.context.ManagedExecutor;
+import org.acme.service.ConfigService;
+import org.acme.service.ConversationExecutor;
+import org.acme.service.outbound.OutboundChannels;
+import org.acme.web.SessionMailbox.Event;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * The chat endpoint. Connections pick a flow with /chatbot/{flowId} ({@link FlowWebSocket}) or ?flowId=, or talk to the default flow.
+ * <p>
+ * Every ping-interval the open connections are pinged. A connection that sent neither a message nor a pong for
+ * liveness-timeout is closed, and one that is gone without its @OnClose ever arriving is cleaned up,
+ * so dead peers don't keep their conversation state around.
+ * Metrics: chatbot.sessions.active, chatbot.sessions.idle (no message for idle-after) and
+ * chatbot.sessions.evicted{cause=unresponsive|abandoned}.
+ */
 @ServerEndpoint("/chatbot") // Defines the WebSocket URL
 @ApplicationScoped
 public class StartWebSocket {
 
+    private static final Logger LOG = Logger.getLogger(StartWebSocket.class);
+
+    // Whoever knows a conversation id can resume the conversation, so clients should use something unguessable, like a UUID
+    private static final Pattern CONVERSATION_ID = Pattern.compile("[A-Za-z0-9_-]{8,64}");
+    private static final ByteBuffer PING = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
     @Inject
     ChatbotService chatbotService; // Inject our business logic service
 
     @Inject
-    ManagedExecutor managedExecutor;
+    OutboundChannels outboundChannels;
+
+    @Inject
+    ConversationExecutor conversationExecutor; // Platform or virtual threads, depending on chatbot.execution-mode
+
+    // Merge messages that arrive while a turn is still in flight into one classification
+    @ConfigProperty(name = "chatbot.websocket.coalesce-messages", defaultValue = "false")
+    boolean coalesceMessages;
+
+    // 0 turns the pings and the liveness check off
+    @ConfigProperty(name = "chatbot.websocket.ping-interval", defaultValue = "30s")
+    Duration pingInterval;
+
+    @ConfigProperty(name = "chatbot.websocket.liveness-timeout", defaultValue = "75s")
+    Duration livenessTimeout;
+
+    @ConfigProperty(name = "chatbot.websocket.idle-after", defaultValue = "5m")
+    Duration idleAfter;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger idleConnections = new AtomicInteger();
+    private Counter closedUnresponsive;
+    private Counter closedAbandoned;
+    private ScheduledFuture<?> sweeper;
+
+    // An open connection, with one mailbox so its events are handled one at a time and in the order they arrived
+    private static final class Connection {
+        final Session session;
+        final SessionMailbox mailbox;
+        volatile long lastSeen = System.nanoTime(); // Any message or pong
+        volatile long lastMessage = lastSeen;
+        final AtomicBoolean closing = new AtomicBoolean();
+
+        Connection(Session session, SessionMailbox mailbox) {
+            this.session = session;
+            this.mailbox = mailbox;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        registry.gaugeMapSize("chatbot.sessions.active", Tags.empty(), connections);
+        Gauge.builder("chatbot.sessions.idle", idleConnections, AtomicInteger::get)
+                .description("Open connections that haven't sent a message for chatbot.websocket.idle-after")
+                .register(registry);
+        closedUnresponsive = evictedCounter("unresponsive");
+        closedAbandoned = evictedCounter("abandoned");
+        if (!pingInterval.isZero()) {
+            long interval = pingInterval.toMillis();
+            sweeper = Infrastructure.getDefaultWorkerPool().scheduleAtFixedRate(() -> sweep(System.nanoTime()), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Counter evictedCounter(String cause) {
+        return Counter.builder("chatbot.sessions.evicted")
+                .description("Sessions dropped without the client closing them")
+                .tag("cause", cause)
+                .register(registry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (sweeper != null) {
+            sweeper.cancel(false);
+        }
+    }
 
     @OnOpen
     public void onOpen(Session session) {
+        // A client resumes its conversation by connecting with ?conversationId=<id>, on any node when the state is in the database
+        List<String> requested = session.getRequestParameterMap().get("conversationId");
+        if (requested != null && !requested.isEmpty()) {
+            String conversationId = requested.get(0);
+            if (!CONVERSATION_ID.matcher(conversationId).matches()) {
+                close(session, CloseReason.CloseCodes.CANNOT_ACCEPT, "Invalid conversationId");
+                return;
+            }
+            session.getUserProperties().put(ChatbotService.CONVERSATION_ID, conversationId);
+        }
+        // /chatbot/{flowId} or /chatbot?flowId=<id> talks to that flow, plain /chatbot to the default one
+        String flowId = session.getPathParameters().get("flowId");
+        if (flowId == null) {
+            List<String> flowParameter = session.getRequestParameterMap().get("flowId");
+            flowId = flowParameter != null && !flowParameter.isEmpty() ? flowParameter.get(0) : null;
+        }
+        if (flowId != null) {
+            if (!ConfigService.FLOW_ID.matcher(flowId).matches()) {
+                close(session, CloseReason.CloseCodes.CANNOT_ACCEPT, "Invalid flowId");
+                return;
+            }
+            session.getUserProperties().put(ChatbotService.FLOW_ID, flowId);
+        }
         // When a new user connects, delegate to the service
-        managedExecutor.runAsync(() -> {
-            chatbotService.handleNewConnection(session);
-        });
+        connection(session).mailbox.post(Event.open());
     }
 
     @OnClose
     public void onClose(Session session) {
-        chatbotService.handleConnectionClose(session);
+        Connection connection = connections.get(session.getId());
+        if (connection != null) {
+            closed(connection);
+        }
     }
 
     @OnMessage
     public void onMessage(String message, Session session) {
         // When a message is received from a user, delegate to the service
-        managedExecutor.runAsync(() -> {
-            chatbotService.handleUserMessage(session, message);
-        });
+        Connection connection = connection(session);
+        connection.lastSeen = connection.lastMessage = System.nanoTime();
+        connection.mailbox.post(Event.message(message));
     }
 
-    // An @OnError method to handle any communication errors
+    @OnMessage
+    public void onPong(PongMessage pong, Session session) {
+        Connection connection = connections.get(session.getId());
+        if (connection != null) {
+            connection.lastSeen = System.nanoTime();
+        }
+    }
+
+    // Handles any communication errors
+    @OnError
     public void onError(Session session, Throwable throwable) {
-         System.err.println("WebSocket error for session " + session.getId() + ": " + throwable.getMessage());
+        LOG.warnf(throwable, "WebSocket error for session %s", session.getId());
+        if (!session.isOpen()) {
+            // Not every container follows up a broken connection with @OnClose
+            onClose(session);
+        }
+    }
+
+    /**
+     * Pings every open connection, closes the ones that stopped answering and cleans up the ones that are gone.
+     * Runs every ping-interval, tests call it with the time they want it to see.
+     */
+    void sweep(long now) {
+        int idle = 0;
+        for (Connection connection : connections.values()) {
+            Session session = connection.session;
+            if (connection.closing.get()) {
+                continue; // Already on its way out
+            }
+            if (!session.isOpen()) {
+                closedAbandoned.increment();
+                closed(connection);
+            } else if (now - connection.lastSeen > livenessTimeout.toNanos()) {
+                LOG.debugf("Closing session %s, no pong for %s", session.getId(), livenessTimeout);
+                closedUnresponsive.increment();
+                close(session, CloseReason.CloseCodes.GOING_AWAY, "No response to ping");
+                // A dead peer may never complete the close handshake
+                closed(connection);
+            } else {
+                if (now - connection.lastMessage > idleAfter.toNanos()) {
+                    idle++;
+                }
+                ping(session);
+            }
+        }
+        idleConnections.set(idle);
+    }
+
+    private static void ping(Session session) {
+        try {
+            session.getAsyncRemote().sendPing(PING);
+        } catch (IOException | RuntimeException e) {
+            LOG.debugf(e, "Could not ping session %s", session.getId());
+        }
+    }
+
+    // Closing is queued too, so the state is only dropped after the session's last message was handled
+    private static void closed(Connection connection) {
+        if (connection.closing.compareAndSet(false, true)) {
+            connection.mailbox.post(Event.close());
+        }
+    }
+
+    private static void close(Session session, CloseReason.CloseCode code, String reason) {
+        try {
+            session.close(new CloseReason(code, reason));
+        } catch (IOException e) {
+            LOG.debugf(e, "Could not close session %s", session.getId());
+        }
+    }
+
+    private Connection connection(Session session) {
+        return connections.computeIfAbsent(session.getId(),
+                id -> new Connection(session, new SessionMailbox(conversationExecutor, coalesceMessages, event -> handle(session, event))));
+    }
+
+    private Uni<Void> handle(Session session, Event event) {
+        return switch (event.type()) {
+            // With chatbot.websocket.slow-consumer=pause, the next event waits until the client has read the replies
+            case OPEN -> Uni.createFrom().voidItem()
+                    .invoke(() -> chatbotService.handleNewConnection(session))
+                    .chain(() -> outboundChannels.whenWritable(session));
+            // The pipeline is asynchronous, so no thread is held while Gemini is thinking
+            case MESSAGE -> chatbotService.handleUserMessage(session, event.message())
+                    .chain(() -> outboundChannels.whenWritable(session));
+            case CLOSE -> Uni.createFrom().voidItem()
+                    .invoke(() -> {
+                        chatbotService.handleConnectionClose(session);
+                        connections.remove(session.getId());
+                    });
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package org.acme.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.acme.persistence.TranscriptLine;
+import org.acme.persistence.TranscriptReader;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+@Path("/api/transcripts")
+@Produces(MediaType.APPLICATION_JSON)
+public class TranscriptResource {
+
+    static final String NDJSON = "application/x-ndjson";
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    @Inject
+    TranscriptReader transcriptReader;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    /**
+     * Endpoint to read one conversation's transcript, a page at a time, oldest first.
+     * Pass the "next" of a page as ?after= to get the page after it; the last page has no "next".
+     * HTTP Method: GET
+     * URL: /api/transcripts/{conversationId}?after=&limit=100
+     */
+    @GET
+    @Path("/{conversationId}")
+    public Response page(@PathParam("conversationId") String conversationId, @QueryParam("after") String after,
+                         @QueryParam("limit") @DefaultValue("100") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return badRequest("limit must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+        try {
+            return Response.ok(transcriptReader.page(conversationId, after, limit)).build();
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Endpoint to export the transcripts of a time range as NDJSON, one entry per line, oldest first.
+     * The entries are streamed as they are read, so an export of any size needs no more memory than a small one.
+     * HTTP Method: GET
+     * URL: /api/transcripts/export?from=2025-01-01T00:00:00Z&to=2025-02-01T00:00:00Z&conversationId=
+     */
+    @GET
+    @Path("/export")
+    @Produces({NDJSON, MediaType.APPLICATION_JSON})
+    public Response export(@QueryParam("from") String from, @QueryParam("to") String to, @QueryParam("conversationId") String conversationId) {
+        Instant start;
+        Instant end;
+        try {
+            start = from != null ? Instant.parse(from) : Instant.EPOCH;
+            end = to != null ? Instant.parse(to) : Instant.now();
+        } catch (DateTimeParseException e) {
+            return badRequest("from and to must be ISO-8601 instants, like 2025-01-01T00:00:00Z.");
+        }
+        StreamingOutput body = output -> write(output, start, end, conversationId);
+        return Response.ok(body, NDJSON).build();
+    }
+
+    /**
+     * Endpoint to get the entries of a conversation that were rolled up out of the transcript table, as NDJSON.
+     * Only there with chatbot.transcript.rollup.enabled; 404 if nothing of the conversation was rolled up.
+     * HTTP Method: GET
+     * URL: /api/transcripts/{conversationId}/archive
+     */
+    @GET
+    @Path("/{conversationId}/archive")
+    @Produces({NDJSON, MediaType.APPLICATION_JSON})
+    public Response archive(@PathParam("conversationId") String conversationId) {
+        List<TranscriptLine> lines = transcriptReader.archive(conversationId);
+        if (lines == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(new ErrorMessage("No archived transcript for this conversation."))
+                    .build();
+        }
+        StreamingOutput body = output -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(new BufferedOutputStream(output))) {
+                json.setRootValueSeparator(null);
+                lines.forEach(line -> writeLine(json, line));
+            }
+        };
+        return Response.ok(body, NDJSON).build();
+    }
+
+    private void write(OutputStream output, Instant from, Instant to, String conversationId) throws IOException {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(new BufferedOutputStream(output, 64 * 1024))) {
+            json.setRootValueSeparator(null);
+            transcriptReader.export(from, to, conversationId, line -> writeLine(json, line));
+        }
+    }
+
+    private static void writeLine(JsonGenerator json, TranscriptLine line) {
+        try {
+            json.writeObject(line);
+            json.writeRaw('\n');
+        } catch (IOException e) {
+            // The client went away, this ends the export and rolls back its transaction
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .type(MediaType.APPLICATION_JSON)
+                .entity(new ErrorMessage(message))
+                .build();
+    }
+}
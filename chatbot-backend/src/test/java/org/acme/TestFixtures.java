@@ -0,0 +1,72 @@
+package org.acme;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.acme.service.gemini.Candidate;
+import org.acme.service.gemini.Content;
+import org.acme.service.gemini.GeminiResponse;
+import org.acme.service.gemini.Part;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * Mocked WebSocket sessions and canned Gemini responses, shared by the tests.
+ */
+public final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /**
+     * A session whose sends complete right away, and go nowhere.
+     */
+    public static Session session(String id) {
+        return session(id, text -> {
+        });
+    }
+
+    /**
+     * A session whose sends complete right away. Its user properties are a real, mutable map.
+     */
+    public static Session session(String id, Consumer<String> onSend) {
+        return slowSession(id, (text, handler) -> {
+            onSend.accept(text);
+            handler.onResult(new SendResult());
+        });
+    }
+
+    /**
+     * A session whose sends only complete when the test calls the handler, like a client that is slow to read.
+     */
+    public static Session slowSession(String id, BiConsumer<String, SendHandler> onSend) {
+        Session session = Mockito.mock(Session.class);
+        RemoteEndpoint.Async remote = Mockito.mock(RemoteEndpoint.Async.class);
+        Mockito.when(session.getId()).thenReturn(id);
+        Mockito.when(session.getAsyncRemote()).thenReturn(remote);
+        Mockito.when(session.getUserProperties()).thenReturn(new HashMap<>());
+        Mockito.doAnswer(invocation -> {
+            onSend.accept(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(remote).sendText(any(String.class), any(SendHandler.class));
+        return session;
+    }
+
+    /**
+     * A Gemini response with one candidate that says {@code text}.
+     */
+    public static GeminiResponse geminiResponse(String text) {
+        Candidate candidate = new Candidate();
+        candidate.content = new Content(List.of(new Part(text)));
+        GeminiResponse response = new GeminiResponse();
+        response.candidates = List.of(candidate);
+        return response;
+    }
+}
@@ -0,0 +1,168 @@
+package org.acme.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowAnalyzerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void testValidFlowPasses() {
+        ChatbotFlow flow = flow("block-welcome",
+                message("block-welcome", "block-intent"),
+                intent("block-intent", "block-yes", "block-welcome"),
+                message("block-yes", null));
+
+        assertDoesNotThrow(() -> validate(flow));
+    }
+
+    @Test
+    void testBrokenLinksAreReported() {
+        Block noFallback = intent("block-intent", "block-gone", null);
+        ((ObjectNode) noFallback.data).putObject("mappings").put("Yes", "block-gone").put("Maybe", "block-welcome");
+        Block noIntents = new Block();
+        noIntents.id = "block-silent";
+        noIntents.type = "INTENT_DETECTION";
+        ChatbotFlow flow = flow("block-welcome",
+                message("block-welcome", "block-intent"),
+                noFallback,
+                noIntents,
+                message("block-welcome", null));
+
+        FlowValidationException exception = assertThrows(FlowValidationException.class, () -> validate(flow));
+
+        assertEquals(List.of("DUPLICATE_ID", "DANGLING_MAPPING", "UNKNOWN_INTENT", "MISSING_FALLBACK", "MISSING_INTENTS", "MISSING_FALLBACK", "UNREACHABLE"),
+                codes(exception));
+        assertEquals(7, exception.issueCount());
+    }
+
+    @Test
+    void testMessageLoopIsReported() {
+        ChatbotFlow flow = flow("block-a",
+                message("block-a", "block-b"),
+                message("block-b", "block-c"),
+                message("block-c", "block-b"));
+
+        FlowValidationException exception = assertThrows(FlowValidationException.class, () -> validate(flow));
+
+        assertEquals(List.of("MESSAGE_LOOP"), codes(exception));
+        assertEquals("block-b", exception.issues().get(0).blockId());
+        assertTrue(exception.issues().get(0).message().contains("block-b -> block-c -> block-b"));
+    }
+
+    @Test
+    void testMissingStartIsReported() {
+        ChatbotFlow flow = flow(null, message("block-a", null));
+
+        FlowValidationException exception = assertThrows(FlowValidationException.class, () -> validate(flow));
+
+        assertEquals(List.of("MISSING_START"), codes(exception));
+    }
+
+    @Test
+    void testBlockTypesNeedAHandler() {
+        Block lookup = new Block();
+        lookup.id = "block-lookup";
+        lookup.type = "ORDER_LOOKUP";
+        lookup.nextBlockId = "block-done";
+        ChatbotFlow flow = flow("block-welcome",
+                message("block-welcome", "block-lookup"),
+                lookup,
+                message("block-done", null));
+
+        FlowValidationException exception = assertThrows(FlowValidationException.class, () -> validate(flow));
+        assertEquals(List.of("UNKNOWN_TYPE"), codes(exception));
+
+        // With a handler for it, the block is followed like a MESSAGE block, so block-done is reachable
+        assertDoesNotThrow(() -> FlowAnalyzer.validate(flow, CompiledFlow.compile(flow), Set.of("MESSAGE", "ORDER_LOOKUP")));
+    }
+
+    @Test
+    void testBadClassifierDataIsReported() {
+        Block classified = intent("block-intent", "block-welcome", "block-welcome");
+        ObjectNode data = (ObjectNode) classified.data;
+        data.put("classifier", "magic");
+        data.putObject("examples").putArray("Refund").add("money back");
+        data.put("minSimilarity", 1.5);
+        ChatbotFlow flow = flow("block-welcome",
+                message("block-welcome", "block-intent"),
+                classified);
+
+        FlowValidationException exception = assertThrows(FlowValidationException.class, () -> validate(flow));
+
+        assertEquals(List.of("UNKNOWN_CLASSIFIER", "UNKNOWN_EXAMPLE_INTENT", "BAD_MIN_SIMILARITY"), codes(exception));
+    }
+
+    @Test
+    void testLongFlowsAreCheckedWithoutRecursion() {
+        // One chain of 100k MESSAGE blocks, anything recursive would overflow the stack
+        int blocks = 100_000;
+        List<Block> chain = new ArrayList<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            chain.add(message("block-" + i, i + 1 < blocks ? "block-" + (i + 1) : null));
+        }
+        ChatbotFlow flow = flow("block-0", chain.toArray(Block[]::new));
+
+        long start = System.nanoTime();
+        assertDoesNotThrow(() -> validate(flow));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "Checking should take linear time.");
+
+        chain.get(blocks - 1).nextBlockId = "block-gone";
+        for (int i = 0; i < blocks; i += 2) {
+            chain.get(i).data = null; // No text
+        }
+        FlowValidationException exception = assertThrows(FlowValidationException.class, () -> validate(flow));
+        assertEquals(FlowAnalyzer.MAX_REPORTED, exception.issues().size(), "Only the first problems should be listed.");
+        assertEquals(blocks / 2 + 1, exception.issueCount());
+    }
+
+    private static void validate(ChatbotFlow flow) {
+        FlowAnalyzer.validate(flow, CompiledFlow.compile(flow));
+    }
+
+    private static List<String> codes(FlowValidationException exception) {
+        return exception.issues().stream().map(FlowIssue::code).toList();
+    }
+
+    private static ChatbotFlow flow(String startBlockId, Block... blocks) {
+        ChatbotFlow flow = new ChatbotFlow();
+        flow.flowId = "analyzer-test-flow";
+        flow.startBlockId = startBlockId;
+        flow.blocks = List.of(blocks);
+        return flow;
+    }
+
+    private static Block message(String id, String nextBlockId) {
+        Block block = new Block();
+        block.id = id;
+        block.type = "MESSAGE";
+        block.data = MAPPER.createObjectNode().put("text", "Text of " + id);
+        block.nextBlockId = nextBlockId;
+        return block;
+    }
+
+    private static Block intent(String id, String yesBlockId, String fallbackBlockId) {
+        Block block = new Block();
+        block.id = id;
+        block.type = "INTENT_DETECTION";
+        ObjectNode data = MAPPER.createObjectNode();
+        data.putArray("intents").add("Yes");
+        data.putObject("mappings").put("Yes", yesBlockId);
+        if (fallbackBlockId != null) {
+            data.put("fallbackBlockId", fallbackBlockId);
+        }
+        block.data = data;
+        return block;
+    }
+}
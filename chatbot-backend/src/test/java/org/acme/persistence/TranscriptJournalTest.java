@@ -0,0 +1,31 @@
+package org.acme.persistence;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranscriptJournalTest {
+
+    @Test
+    void testEntriesAppendedBeforeStartupAreQueued() {
+        // Arrange: created by CDI, but the StartupEvent hasn't come yet
+        TranscriptJournal journal = new TranscriptJournal();
+        journal.registry = new SimpleMeterRegistry();
+        journal.batchSize = 200;
+        journal.flushInterval = Duration.ofMillis(200);
+        journal.queueCapacity = 10;
+        journal.offerTimeout = Duration.ofMillis(50);
+        journal.init();
+
+        // Act
+        boolean appended = journal.append(new ConversationEntry("early-conversation", "BOT", "Welcome!", "block-welcome"));
+
+        // Assert
+        assertTrue(appended);
+        assertEquals(1, journal.queued(), "The entry waits for the flusher instead of failing.");
+    }
+}
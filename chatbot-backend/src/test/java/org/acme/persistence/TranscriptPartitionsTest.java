@@ -0,0 +1,79 @@
+package org.acme.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranscriptPartitionsTest {
+
+    private static final Instant NOW = Instant.parse("2025-03-10T15:00:00Z");
+
+    @Test
+    void testPartitionNamesRoundTrip() {
+        LocalDate start = PartitionPeriod.DAY.start(NOW);
+        assertEquals("conversationentry_p20250310", PartitionPeriod.DAY.name(start));
+        assertEquals(start, PartitionPeriod.DAY.parse("conversationentry_p20250310"));
+
+        LocalDate month = PartitionPeriod.MONTH.start(NOW);
+        assertEquals(LocalDate.of(2025, 3, 1), month);
+        assertEquals("conversationentry_p202503", PartitionPeriod.MONTH.name(month));
+        assertEquals(month, PartitionPeriod.MONTH.parse("conversationentry_p202503"));
+
+        // Neither the default partition nor the other period's names are ours
+        assertNull(PartitionPeriod.DAY.parse("conversationentry_default"));
+        assertNull(PartitionPeriod.DAY.parse("conversationentry_p202503"));
+        assertNull(PartitionPeriod.MONTH.parse("conversationentry_legacy"));
+    }
+
+    @Test
+    void testPlanCreatesTheComingPartitions() {
+        List<String> existing = List.of("conversationentry_p20250310", "conversationentry_p20250311", "conversationentry_default");
+
+        TranscriptPartitions.Plan plan = TranscriptPartitions.plan(PartitionPeriod.DAY, NOW, existing, 3, Optional.empty(), Optional.empty());
+
+        assertEquals(List.of(LocalDate.of(2025, 3, 12), LocalDate.of(2025, 3, 13)), plan.create());
+        assertTrue(plan.compact().isEmpty());
+        assertTrue(plan.drop().isEmpty());
+    }
+
+    @Test
+    void testPlanDropsPastRetentionAndCompactsPastRollup() {
+        List<String> existing = List.of("conversationentry_p20250102", "conversationentry_p20250101",
+                "conversationentry_p20250209", "conversationentry_p20250208", "conversationentry_p20250207",
+                "conversationentry_p20250310", "conversationentry_default");
+
+        TranscriptPartitions.Plan plan = TranscriptPartitions.plan(PartitionPeriod.DAY, NOW, existing, 0,
+                Optional.of(Duration.ofDays(60)), Optional.of(Duration.ofDays(30)));
+
+        assertTrue(plan.create().isEmpty());
+        // Only whole partitions go: 2025-02-08 ends 9 hours after the 30-day cutoff
+        assertEquals(List.of("conversationentry_p20250207"), plan.compact());
+        assertEquals(List.of("conversationentry_p20250102", "conversationentry_p20250101"), plan.drop());
+    }
+
+    @Test
+    void testRollupAppendsInOrder() {
+        TranscriptRollup rollup = new TranscriptRollup("rollup");
+        rollup.append(List.of(line(1, "hello"), line(2, "hi there")));
+        rollup.append(List.of(line(3, "bye")));
+
+        List<TranscriptLine> entries = rollup.entries();
+        assertEquals(List.of("hello", "hi there", "bye"), entries.stream().map(TranscriptLine::message).toList());
+        assertEquals(line(2, "hi there"), entries.get(1));
+        assertEquals(3, rollup.entryCount);
+        assertEquals(NOW.plusSeconds(1), rollup.firstAt);
+        assertEquals(NOW.plusSeconds(3), rollup.lastAt);
+    }
+
+    private static TranscriptLine line(long id, String message) {
+        return new TranscriptLine(id, "rollup", NOW.plusSeconds(id), "USER", message, "start");
+    }
+}
@@ -0,0 +1,225 @@
+package org.acme.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.websocket.Session;
+import org.acme.TestFixtures;
+import org.acme.domain.Block;
+import org.acme.domain.ChatbotFlow;
+import org.acme.persistence.ConversationEntry;
+import org.acme.persistence.TranscriptJournal;
+import org.acme.service.gemini.GeminiClient;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+@QuarkusTest
+class ChatbotServiceLoadTest {
+
+    private static final Logger LOG = Logger.getLogger(ChatbotServiceLoadTest.class);
+
+    private static final int CONVERSATIONS = 2000;
+    private static final int SUBSCRIBER_THREADS = 4;
+    // Short enough for the real concurrency limit to get through every call within its maximum wait
+    private static final Duration GEMINI_LATENCY = Duration.ofMillis(100);
+    // Try -Dchatbot.load-test.export-rows=10000000 for the real thing, it takes a few minutes
+    private static final int EXPORT_ROWS = Integer.getInteger("chatbot.load-test.export-rows", 500_000);
+
+    @TestHTTPResource("/api/transcripts/export")
+    URL exportUrl;
+
+    @Inject
+    ChatbotService chatbotService;
+
+    @Inject
+    ConfigService configService;
+
+    @Inject
+    TranscriptJournal transcriptJournal;
+
+    @Inject
+    MeterRegistry registry;
+
+    @InjectMock
+    @RestClient
+    GeminiClient geminiClientMock;
+
+    @BeforeEach
+    @Transactional
+    void setUp() {
+        transcriptJournal.flush(); // Don't let entries from an earlier test land after the cleanup
+        ConversationEntry.deleteAll();
+
+        ObjectMapper mapper = new ObjectMapper();
+        ChatbotFlow flow = new ChatbotFlow();
+        flow.flowId = "load-test-flow";
+        flow.startBlockId = "block-welcome";
+
+        Block blockWelcome = new Block();
+        blockWelcome.id = "block-welcome";
+        blockWelcome.type = "MESSAGE";
+        blockWelcome.data = mapper.createObjectNode().put("text", "Welcome!");
+        blockWelcome.nextBlockId = "block-intent";
+
+        Block blockIntent = new Block();
+        blockIntent.id = "block-intent";
+        blockIntent.type = "INTENT_DETECTION";
+        ObjectNode data = mapper.createObjectNode();
+        data.putArray("intents").add("Get Weather");
+        data.set("mappings", mapper.createObjectNode().put("Get Weather", "block-weather"));
+        data.put("fallbackBlockId", "block-weather");
+        blockIntent.data = data;
+
+        Block blockWeather = new Block();
+        blockWeather.id = "block-weather";
+        blockWeather.type = "MESSAGE";
+        blockWeather.data = mapper.createObjectNode().put("text", "It is sunny.");
+
+        flow.blocks = List.of(blockWelcome, blockIntent, blockWeather);
+        configService.updateFlow(flow);
+    }
+
+    @Test
+    void testThousandsOfPendingIntentDetectionsOnFewThreads() throws Exception {
+        // Arrange
+        AtomicInteger pending = new AtomicInteger();
+        AtomicInteger peakPending = new AtomicInteger();
+        AtomicInteger calling = new AtomicInteger();
+        AtomicInteger peakCalling = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+        Mockito.when(geminiClientMock.generateContent(anyString(), any()))
+                .thenAnswer(invocation -> Uni.createFrom().item(TestFixtures.geminiResponse("Get Weather"))
+                        .onSubscription().invoke(() -> {
+                            calls.incrementAndGet();
+                            peakCalling.accumulateAndGet(calling.incrementAndGet(), Math::max);
+                        })
+                        .onItem().delayIt().by(GEMINI_LATENCY)
+                        .onItem().invoke(calling::decrementAndGet));
+        double rejectedBefore = rejected();
+
+        List<Session> sessions = new ArrayList<>(CONVERSATIONS);
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            Session session = TestFixtures.session("load-session-" + i);
+            chatbotService.handleNewConnection(session);
+            sessions.add(session);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        ExecutorService subscribers = Executors.newFixedThreadPool(SUBSCRIBER_THREADS);
+
+        // Act
+        long start = System.nanoTime();
+        try {
+            List<CompletableFuture<Void>> turns = new ArrayList<>(CONVERSATIONS);
+            for (int i = 0; i < CONVERSATIONS; i++) {
+                // Every message is different, so none of them can be answered from the intent cache
+                turns.add(chatbotService.handleUserMessage(sessions.get(i), "what is the weather like today? #" + i)
+                        .onSubscription().invoke(() -> peakPending.accumulateAndGet(pending.incrementAndGet(), Math::max))
+                        .onTermination().invoke(pending::decrementAndGet)
+                        .runSubscriptionOn(subscribers)
+                        .subscribeAsCompletionStage());
+            }
+            CompletableFuture.allOf(turns.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+        } finally {
+            subscribers.shutdownNow();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        // Assert
+        LOG.infof("%d turns in %d ms, peak pending intent detections: %d, peak concurrent Gemini calls: %d, peak live threads: %d",
+                CONVERSATIONS, elapsed.toMillis(), peakPending.get(), peakCalling.get(), threads.getPeakThreadCount());
+
+        // Hundreds of conversations were waiting on Gemini at the same time, most of them queued for a permit...
+        assertTrue(peakPending.get() >= CONVERSATIONS / 10, "Expected hundreds of intent detections to be pending at once, peak was " + peakPending.get());
+        assertTrue(peakCalling.get() <= 200, "The concurrency limit let " + peakCalling.get() + " calls through at once");
+        // ...and each of them got its call in the end, instead of being shed to the fallback
+        assertEquals(CONVERSATIONS, calls.get());
+        assertEquals(rejectedBefore, rejected());
+        // ...without a thread per waiting conversation
+        assertTrue(threads.getPeakThreadCount() < CONVERSATIONS / 4, "Too many threads: " + threads.getPeakThreadCount());
+        // A blocking pipeline would need CONVERSATIONS * latency / threads (50 s) to get through this
+        assertTrue(elapsed.compareTo(Duration.ofSeconds(30)) < 0, "Turns took too long: " + elapsed);
+
+        transcriptJournal.flush();
+        assertEquals(CONVERSATIONS, ConversationEntry.count("actor = 'BOT' and message = 'It is sunny.'"));
+    }
+
+    @Test
+    void testTranscriptExportKeepsTheHeapFlat() throws Exception {
+        // Arrange: EXPORT_ROWS entries, written straight into the table; the ids are far above anything the sequence hands out
+        QuarkusTransaction.requiringNew().timeout(600).run(() -> ConversationEntry.getEntityManager().createNativeQuery(
+                        "insert into ConversationEntry (id, conversationId, timestamp, actor, message, blockId) "
+                                + "select 1000000000 + x, 'export-' || mod(x, 1000), dateadd('MILLISECOND', x, timestamp with time zone '2025-01-01 00:00:00Z'), "
+                                + "'BOT', 'Exported message number ' || x, 'block-weather' from system_range(1, ?1)")
+                .setParameter(1, EXPORT_ROWS)
+                .executeUpdate());
+        long baseline = usedHeapAfterGc();
+        long peakGrowth = 0;
+
+        // Act: read the export as a client would, one line at a time
+        long lines = 0;
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) exportUrl.openConnection();
+        try (BufferedReader body = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            while (body.readLine() != null) {
+                if (++lines % (EXPORT_ROWS / 4) == 0) {
+                    peakGrowth = Math.max(peakGrowth, usedHeapAfterGc() - baseline);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        // Assert
+        LOG.infof("Exported %d entries in %d ms, peak heap growth: %d MB", lines, elapsed.toMillis(), peakGrowth / (1024 * 1024));
+        assertEquals(EXPORT_ROWS, lines);
+        // Holding the rows, or the response, would take hundreds of bytes per entry
+        assertTrue(peakGrowth < 64L * 1024 * 1024, "The heap grew by " + peakGrowth / (1024 * 1024) + " MB during the export");
+        QuarkusTransaction.requiringNew().timeout(600).run(() -> ConversationEntry.delete("id > ?1", 1_000_000_000L));
+    }
+
+    // The guard registers its meters when it is first used
+    private double rejected() {
+        Counter counter = registry.find("chatbot.gemini.limiter.rejected").counter();
+        return counter != null ? counter.count() : 0;
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
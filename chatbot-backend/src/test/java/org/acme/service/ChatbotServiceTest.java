@@ -2,28 +2,28 @@ package org.acme.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.InjectMock;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
-import jakarta.websocket.RemoteEndpoint;
-import jakarta.websocket.SendHandler;
-import jakarta.websocket.SendResult;
 import jakarta.websocket.Session;
+import org.acme.TestFixtures;
 import org.acme.domain.Block;
 import org.acme.domain.ChatbotFlow;
 import org.acme.persistence.ConversationEntry;
+import org.acme.persistence.TranscriptJournal;
 import org.acme.service.gemini.GeminiService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.doAnswer;
 
 @QuarkusTest
 class ChatbotServiceTest {
@@ -34,12 +34,19 @@ class ChatbotServiceTest {
     @Inject
     ConfigService configService;
 
+    @Inject
+    TranscriptJournal transcriptJournal;
+
+    @Inject
+    MeterRegistry registry;
+
     @InjectMock
     GeminiService geminiServiceMock;
 
     @BeforeEach
     @Transactional
     void setUp() {
+        transcriptJournal.flush(); // Don't let entries from an earlier test land after the cleanup
         ConversationEntry.deleteAll();
 
         // Create a simple flow for testing
@@ -84,18 +91,10 @@ class ChatbotServiceTest {
     @Transactional
     void testFullConversationFlow() throws InterruptedException {
         // Arrange
-        Session sessionMock = Mockito.mock(Session.class);
-        RemoteEndpoint.Async asyncRemoteMock = Mockito.mock(RemoteEndpoint.Async.class);
-        Mockito.when(sessionMock.getId()).thenReturn("session-123");
-        Mockito.when(sessionMock.getAsyncRemote()).thenReturn(asyncRemoteMock);
-        doAnswer(invocation -> {
-            SendHandler handler = invocation.getArgument(1);
-            handler.onResult(new SendResult());
-            return null;
-        }).when(asyncRemoteMock).sendText(any(String.class), any(SendHandler.class));
+        Session sessionMock = TestFixtures.session("session-123");
 
         String userMessage = "what is the weather like today?";
-        Mockito.when(geminiServiceMock.determineIntent(Mockito.anyString(), Mockito.anyList()))
+        Mockito.when(geminiServiceMock.determineIntent(Mockito.anyString(), Mockito.anyList(), Mockito.anyString()))
                 .thenReturn(Uni.createFrom().item("Get Weather"));
 
         // Act
@@ -107,10 +106,11 @@ class ChatbotServiceTest {
         Thread.sleep(200);
 
         // Simulate the user sending message.
-        chatbotService.handleUserMessage(sessionMock, userMessage);
+        chatbotService.handleUserMessage(sessionMock, userMessage).await().indefinitely();
 
         // A longer wait for the Gemini call and the DB writes
         Thread.sleep(500);
+        transcriptJournal.flush();
 
         // Assert
 
@@ -126,4 +126,167 @@ class ChatbotServiceTest {
         ConversationEntry responseMsg = ConversationEntry.find("actor = 'BOT' and message = 'It is sunny.'").firstResult();
         assertEquals("block-weather", responseMsg.blockId);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testTurnMetrics() {
+        Session sessionMock = TestFixtures.session("session-metrics");
+        Mockito.when(geminiServiceMock.determineIntent(Mockito.anyString(), Mockito.anyList(), Mockito.anyString()))
+                .thenReturn(Uni.createFrom().item("Get Weather"));
+
+        long turnsBefore = registry.get("chatbot.turn").timer().count();
+        long sendsBefore = registry.get("chatbot.websocket.send").tag("result", "ok").timer().count();
+
+        chatbotService.handleNewConnection(sessionMock);
+        double waiting = waitingAt("test-flow", "block-intent");
+
+        chatbotService.handleUserMessage(sessionMock, "what is the weather like today?").await().indefinitely();
+        chatbotService.handleConnectionClose(sessionMock);
+
+        assertEquals(turnsBefore + 1, registry.get("chatbot.turn").timer().count());
+        // The welcome message and the answer
+        assertEquals(sendsBefore + 2, registry.get("chatbot.websocket.send").tag("result", "ok").timer().count());
+        assertEquals(waiting - 1, waitingAt("test-flow", "block-intent"));
+    }
+
+    @Test
+    void testConversationStaysOnItsFlowVersionAcrossAnUpload() {
+        // Arrange
+        List<String> sent = new CopyOnWriteArrayList<>();
+        Session sessionMock = TestFixtures.session("session-pinned", sent::add);
+        Mockito.when(geminiServiceMock.determineIntent(Mockito.anyString(), Mockito.anyList(), Mockito.anyString()))
+                .thenReturn(Uni.createFrom().item("Get Weather"));
+
+        chatbotService.handleNewConnection(sessionMock);
+
+        // Act: a new flow that has none of the old blocks goes live while the conversation waits at block-intent
+        ChatbotFlow replacement = new ChatbotFlow();
+        replacement.flowId = "test-flow";
+        replacement.startBlockId = "block-hello";
+        Block blockHello = new Block();
+        blockHello.id = "block-hello";
+        blockHello.type = "MESSAGE";
+        blockHello.data = new ObjectMapper().createObjectNode().put("text", "Hello from the new version!");
+        replacement.blocks = List.of(blockHello);
+        configService.updateFlow(replacement);
+
+        chatbotService.handleUserMessage(sessionMock, "what is the weather like today?").await().indefinitely();
+        chatbotService.handleConnectionClose(sessionMock);
+
+        // Assert
+        assertEquals(List.of("Welcome!", "It is sunny."), sent);
+    }
+
+    @Test
+    void testConnectionTalksToTheFlowItAskedFor() {
+        // Arrange
+        ChatbotFlow other = new ChatbotFlow();
+        other.flowId = "other-test-flow";
+        other.startBlockId = "block-hello";
+        Block blockHello = new Block();
+        blockHello.id = "block-hello";
+        blockHello.type = "MESSAGE";
+        blockHello.data = new ObjectMapper().createObjectNode().put("text", "Hello from the other flow!");
+        other.blocks = List.of(blockHello);
+        configService.updateFlow(other);
+
+        List<String> sent = new CopyOnWriteArrayList<>();
+        Session otherSession = sessionFor("session-other-flow", "other-test-flow", sent);
+        Session unknownSession = sessionFor("session-unknown-flow", "no-such-flow", sent);
+
+        // Act
+        chatbotService.handleNewConnection(otherSession);
+        chatbotService.handleNewConnection(unknownSession);
+        chatbotService.handleConnectionClose(otherSession);
+        chatbotService.handleConnectionClose(unknownSession);
+
+        // Assert
+        assertEquals(List.of("Hello from the other flow!", "Unknown chatbot flow: no-such-flow"), sent);
+    }
+
+    @Test
+    void testPluggedInBlockTypeRunsAndALoopIsCutShort() {
+        // Arrange: a TEST_NOTE block (see NoteBlockHandler) that leads back to itself, which the upload check leaves to the engine
+        ChatbotFlow notes = new ChatbotFlow();
+        notes.flowId = "note-test-flow";
+        notes.startBlockId = "block-note";
+        Block blockNote = new Block();
+        blockNote.id = "block-note";
+        blockNote.type = "TEST_NOTE";
+        blockNote.data = new ObjectMapper().createObjectNode().put("note", "Noted.");
+        blockNote.nextBlockId = "block-note";
+        notes.blocks = List.of(blockNote);
+        configService.updateFlow(notes);
+
+        List<String> sent = new CopyOnWriteArrayList<>();
+        Session session = sessionFor("session-notes", "note-test-flow", sent);
+        double exceededBefore = registry.get("chatbot.turn.step-budget-exceeded").counter().count();
+
+        // Act
+        chatbotService.handleNewConnection(session);
+        chatbotService.handleConnectionClose(session);
+
+        // Assert: max-steps-per-turn notes, then the turn was stopped
+        assertEquals(1001, sent.size());
+        assertEquals("Noted.", sent.get(0));
+        assertEquals("Error: The flow runs too long without waiting for you. Stopping here.", sent.get(1000));
+        assertEquals(exceededBefore + 1, registry.get("chatbot.turn.step-budget-exceeded").counter().count());
+    }
+
+    @Test
+    void testPluggedInBlockTypeCanWaitForTheUser() {
+        // Arrange: a TEST_ASK block (see AskBlockHandler) that leads to a MESSAGE block
+        ObjectMapper mapper = new ObjectMapper();
+        ChatbotFlow asking = new ChatbotFlow();
+        asking.flowId = "ask-test-flow";
+        asking.startBlockId = "block-ask";
+        Block blockAsk = new Block();
+        blockAsk.id = "block-ask";
+        blockAsk.type = "TEST_ASK";
+        blockAsk.data = mapper.createObjectNode().put("question", "What is your name?");
+        blockAsk.nextBlockId = "block-thanks";
+        Block blockThanks = new Block();
+        blockThanks.id = "block-thanks";
+        blockThanks.type = "MESSAGE";
+        blockThanks.data = mapper.createObjectNode().put("text", "Thanks.");
+        asking.blocks = List.of(blockAsk, blockThanks);
+        configService.updateFlow(asking);
+
+        List<String> sent = new CopyOnWriteArrayList<>();
+        Session session = sessionFor("session-ask", "ask-test-flow", sent);
+        session.getUserProperties().put(ChatbotService.CONVERSATION_ID, "ask-test-conversation");
+
+        // Act & Assert: the question is asked, and the session waits at the block
+        chatbotService.handleNewConnection(session);
+        assertEquals(List.of("What is your name?"), sent);
+        assertEquals(1, waitingAt("ask-test-flow", "block-ask"));
+
+        // The handler keeps it waiting
+        chatbotService.handleUserMessage(session, "again").await().indefinitely();
+        assertEquals(List.of("What is your name?", "You said: again"), sent);
+        assertEquals(1, waitingAt("ask-test-flow", "block-ask"));
+
+        // Another connection to the same conversation resumes at the block instead of asking again
+        Session reconnected = sessionFor("session-ask-2", "ask-test-flow", sent);
+        reconnected.getUserProperties().put(ChatbotService.CONVERSATION_ID, "ask-test-conversation");
+        chatbotService.handleNewConnection(reconnected);
+        assertEquals(2, sent.size());
+
+        // The handler moves the conversation on
+        chatbotService.handleUserMessage(reconnected, "Ada").await().indefinitely();
+        assertEquals(List.of("What is your name?", "You said: again", "You said: Ada", "Thanks."), sent);
+        chatbotService.handleConnectionClose(reconnected);
+        chatbotService.handleConnectionClose(session);
+    }
+
+    // A block's gauge is only there while sessions wait at it
+    private double waitingAt(String flowId, String blockId) {
+        Gauge gauge = registry.find("chatbot.sessions.waiting").tag("flow", flowId).tag("block", blockId).gauge();
+        return gauge != null ? gauge.value() : 0;
+    }
+
+    private static Session sessionFor(String id, String flowId, List<String> sent) {
+        Session session = TestFixtures.session(id, sent::add);
+        session.getUserProperties().put(ChatbotService.FLOW_ID, flowId);
+        return session;
+    }
+}
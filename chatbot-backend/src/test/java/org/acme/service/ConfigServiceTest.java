@@ -1,11 +1,30 @@
 package org.acme.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
+import org.acme.domain.Block;
+import org.acme.domain.BlockType;
 import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledBlock;
+import org.acme.domain.CompiledFlow;
+import org.acme.domain.FlowValidationException;
+import org.acme.persistence.FlowStore;
+import org.acme.persistence.FlowSummary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @QuarkusTest // This tells Quarkus to start the application for this test
@@ -14,6 +33,12 @@ class ConfigServiceTest {
     @Inject
     ConfigService configService;
 
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    FlowStore flowStore;
+
     // Resetting the state before each test in this class
     @BeforeEach
     void setUp() {
@@ -25,6 +50,12 @@ class ConfigServiceTest {
         ChatbotFlow flow = new ChatbotFlow();
         flow.flowId = "test-flow-1";
         flow.name = "Test Flow";
+        flow.startBlockId = "block-welcome";
+        Block blockWelcome = new Block();
+        blockWelcome.id = "block-welcome";
+        blockWelcome.type = "MESSAGE";
+        blockWelcome.data = new ObjectMapper().createObjectNode().put("text", "Welcome!");
+        flow.blocks = List.of(blockWelcome);
         return flow;
     }
 
@@ -43,6 +74,17 @@ class ConfigServiceTest {
         assertEquals("test-flow-1", retrievedFlow.flowId, "The flowId should match the one we set.");
     }
 
+    @Test
+    void testBrokenFlowIsRejected() {
+        ChatbotFlow flow = createTestFlow();
+        flow.blocks.get(0).nextBlockId = "block-missing";
+
+        FlowValidationException exception = assertThrows(FlowValidationException.class, () -> configService.updateFlow(flow));
+
+        assertEquals("DANGLING_NEXT", exception.issues().get(0).code());
+        assertNull(configService.getFlow("test-flow-1"), "A rejected flow should not be stored.");
+    }
+
     @Test
     void testUpdateWithNullFlow() {
         // Prove that the validation works
@@ -52,4 +94,227 @@ class ConfigServiceTest {
 
         assertEquals("Chatbot flow cannot be null and must have a flowId.", exception.getMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testUpdateFlowCompilesBlockIndex() {
+        // Arrange
+        ObjectMapper mapper = new ObjectMapper();
+        ChatbotFlow flow = createTestFlow();
+        flow.startBlockId = "block-intent";
+
+        Block blockIntent = new Block();
+        blockIntent.id = "block-intent";
+        blockIntent.type = "INTENT_DETECTION";
+        ObjectNode data = mapper.createObjectNode();
+        data.putArray("intents").add("Yes").add("No");
+        data.set("mappings", mapper.createObjectNode().put("Yes", "block-yes"));
+        data.put("fallbackBlockId", "block-fallback");
+        blockIntent.data = data;
+
+        Block blockCustom = new Block();
+        blockCustom.id = "block-custom";
+        blockCustom.type = "SOMETHING_NEW";
+        flow.blocks = List.of(blockIntent, blockCustom);
+
+        // Act: compiled directly, the dangling targets would not pass validation
+        CompiledFlow compiled = CompiledFlow.compile(flow);
+
+        // Assert
+        assertEquals(2, compiled.size());
+
+        CompiledBlock intentBlock = compiled.block("block-intent");
+        assertEquals(BlockType.INTENT_DETECTION, intentBlock.type());
+        assertEquals(List.of("Yes", "No"), intentBlock.intents());
+        assertEquals("block-yes", intentBlock.targetFor("Yes"));
+        assertEquals("block-fallback", intentBlock.targetFor("No"), "Unmapped intents should go to the fallback block.");
+        assertEquals("block-fallback", intentBlock.targetFor("NO_MATCH"));
+
+        assertEquals(BlockType.UNKNOWN, compiled.block("block-custom").type());
+        assertNull(compiled.block("block-missing"));
+    }
+
+    @Test
+    void testPinnedVersionIsKeptUntilReleased() {
+        // Arrange
+        configService.updateFlow(createTestFlow());
+        CompiledFlow first = configService.pin();
+        CompiledFlow alsoFirst = configService.pin();
+
+        // Act
+        ChatbotFlow update = createTestFlow();
+        update.name = "Updated Test Flow";
+        configService.updateFlow(update);
+
+        // Assert
+        CompiledFlow latest = configService.getCompiledFlow();
+        assertTrue(latest.version() > first.version(), "Every upload should get a new version.");
+        assertEquals("Test Flow", first.source().name, "A pinned conversation should keep seeing its own version.");
+        assertEquals(2.0, liveVersions());
+
+        configService.release(first);
+        assertEquals(2.0, liveVersions(), "Still pinned by the second conversation.");
+        configService.release(alsoFirst);
+        assertEquals(1.0, liveVersions(), "An old version without conversations should be reclaimed.");
+
+        assertSame(latest, configService.pin());
+        configService.release(latest);
+        assertEquals(1.0, liveVersions(), "The latest version is kept even without conversations.");
+    }
+
+    @Test
+    void testUnpinnedVersionIsReclaimedOnUpload() {
+        configService.updateFlow(createTestFlow());
+        configService.updateFlow(createTestFlow());
+
+        assertEquals(1.0, liveVersions());
+    }
+
+    @Test
+    void testFlowsAreKeptApart() {
+        // Arrange
+        ChatbotFlow second = createTestFlow();
+        second.flowId = "test-flow-2";
+        second.name = "Second Test Flow";
+
+        // Act
+        configService.updateFlow(createTestFlow());
+        configService.updateFlow(second);
+
+        // Assert
+        assertEquals("Test Flow", configService.getFlow("test-flow-1").name);
+        assertEquals("Second Test Flow", configService.getFlow("test-flow-2").name);
+        assertEquals("test-flow-2", configService.getFlow().flowId, "The default flow should be the last one uploaded.");
+        assertNull(configService.getCompiledFlow("no-such-flow"));
+        assertNull(configService.pin("no-such-flow"));
+        assertEquals(List.of("test-flow-1", "test-flow-2"), configService.listFlows().stream().map(FlowSummary::flowId).toList());
+    }
+
+    @Test
+    void testEvictedFlowIsLoadedFromTheDatabase() {
+        // Arrange
+        ChatbotFlow flow = createTestFlow();
+        configService.updateFlow(flow);
+        configService.updateFlow(flow);
+        CompiledFlow cached = configService.getCompiledFlow("test-flow-1");
+
+        // Act
+        configService.unload("test-flow-1");
+        CompiledFlow loaded = configService.getCompiledFlow("test-flow-1");
+
+        // Assert
+        assertNotSame(cached, loaded);
+        assertEquals(cached.version(), loaded.version(), "Loading should not make up a new version.");
+        assertEquals("Welcome!", loaded.block("block-welcome").text());
+        assertSame(loaded, configService.getCompiledFlow("test-flow-1"), "A loaded flow should stay cached.");
+    }
+
+    @Test
+    void testUploadOnAnotherNodeIsPickedUpOnRefresh() throws Exception {
+        // Arrange
+        configService.updateFlow(createTestFlow());
+        CompiledFlow cached = configService.getCompiledFlow("test-flow-1");
+        assertSame(cached, configService.refresh("test-flow-1").get(5, TimeUnit.SECONDS), "An unchanged flow should not be compiled again.");
+
+        // Act: another node, which only shares the database, saves a new version
+        ChatbotFlow changed = createTestFlow();
+        changed.name = "Changed Elsewhere";
+        flowStore.save(CompiledFlow.compile(changed));
+        CompiledFlow refreshed = configService.refresh("test-flow-1").get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(cached.version() + 1, refreshed.version());
+        assertEquals("Changed Elsewhere", configService.getFlow("test-flow-1").name);
+
+        // And deletes it
+        flowStore.delete("test-flow-1");
+        assertNull(configService.refresh("test-flow-1").get(5, TimeUnit.SECONDS));
+        assertNull(configService.getCompiledFlow("test-flow-1"));
+    }
+
+    @Test
+    void testUnknownFlowIdsAreRemembered() {
+        ChatbotFlow flow = createTestFlow();
+        flow.flowId = "not-there-yet";
+        assertNull(configService.getCompiledFlow("not-there-yet"));
+
+        // Another node's upload shows up after refresh-after, there is no query for every lookup until then
+        flowStore.save(CompiledFlow.compile(flow));
+        assertNull(configService.getCompiledFlow("not-there-yet"));
+
+        // An upload to this node shows up right away
+        configService.updateFlow(flow);
+        assertEquals("not-there-yet", configService.getFlow("not-there-yet").flowId);
+    }
+
+    @Test
+    void testConcurrentFirstUploadsOfAFlowBothSucceed() throws Exception {
+        ExecutorService uploaders = Executors.newFixedThreadPool(2);
+        try {
+            // Racing for the insert doesn't happen every time, so race a few times
+            for (int i = 0; i < 10; i++) {
+                ChatbotFlow flow = createTestFlow();
+                flow.flowId = "racing-flow-" + i;
+                CompiledFlow compiled = CompiledFlow.compile(flow);
+                CountDownLatch start = new CountDownLatch(1);
+                Callable<Long> upload = () -> {
+                    start.await();
+                    return flowStore.save(compiled);
+                };
+                Future<Long> first = uploaders.submit(upload);
+                Future<Long> second = uploaders.submit(upload);
+                start.countDown();
+
+                List<Long> versions = Stream.of(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS)).sorted().toList();
+                assertEquals(List.of(1L, 2L), versions);
+            }
+        } finally {
+            uploaders.shutdownNow();
+        }
+    }
+
+    @Test
+    void testWarmUpLoadsStoredFlows() {
+        // Arrange: stored by an earlier run, nothing in memory
+        ChatbotFlow second = createTestFlow();
+        second.flowId = "test-flow-2";
+        configService.updateFlow(createTestFlow());
+        configService.updateFlow(second);
+        configService.unload("test-flow-1");
+        configService.unload("test-flow-2");
+
+        // Act
+        int loaded = configService.warmUp(2);
+
+        // Assert
+        assertEquals(2, loaded);
+        assertEquals("Test Flow", configService.getFlow("test-flow-1").name, "The flow should survive the round trip through the database.");
+        assertEquals(2.0, liveVersions());
+    }
+
+    @Test
+    void testDeleteFlow() {
+        configService.updateFlow(createTestFlow());
+        CompiledFlow pinned = configService.pin("test-flow-1");
+
+        assertTrue(configService.deleteFlow("test-flow-1"));
+
+        assertNull(configService.getFlow("test-flow-1"));
+        assertNull(configService.getFlow(), "There is no flow left to be the default.");
+        assertEquals("Test Flow", pinned.source().name, "A running conversation should keep its version.");
+        assertFalse(configService.deleteFlow("test-flow-1"));
+        configService.release(pinned);
+        assertEquals(0.0, liveVersions());
+    }
+
+    @Test
+    void testInvalidFlowIdIsRejected() {
+        ChatbotFlow flow = createTestFlow();
+        flow.flowId = "flow/with a space";
+
+        assertThrows(IllegalArgumentException.class, () -> configService.updateFlow(flow));
+    }
+
+    private double liveVersions() {
+        return registry.get("chatbot.flow.versions").gauge().value();
+    }
+}
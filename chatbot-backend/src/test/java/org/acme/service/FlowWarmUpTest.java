@@ -0,0 +1,27 @@
+package org.acme.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+class FlowWarmUpTest {
+
+    @Inject
+    MeterRegistry registry;
+
+    @Test
+    void testReadyOnceTheFlowsAreLoaded() {
+        given().get("/q/health/ready")
+                .then().statusCode(200)
+                .body("checks.find { it.name == 'flows-loaded' }.status", equalTo("UP"));
+
+        assertTrue(registry.get("chatbot.startup.time-to-ready").gauge().value() > 0);
+        assertTrue(registry.get("chatbot.flows.warm-up").timer().count() > 0);
+    }
+}
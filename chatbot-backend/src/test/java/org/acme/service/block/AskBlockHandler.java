@@ -0,0 +1,30 @@
+package org.acme.service.block;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.domain.CompiledBlock;
+
+/**
+ * A block type that only exists in the tests, to check that plugged-in handlers can wait for the user.
+ * Asks its "question", repeats the answer and moves on, or keeps waiting when the answer is "again".
+ */
+@ApplicationScoped
+public class AskBlockHandler implements BlockHandler {
+
+    @Override
+    public String type() {
+        return "TEST_ASK";
+    }
+
+    @Override
+    public Step execute(CompiledBlock block, BlockContext context) {
+        context.send(block.data().path("question").asText(), block.id());
+        return Step.WAIT_FOR_INPUT;
+    }
+
+    @Override
+    public Uni<Step> onInput(CompiledBlock block, String userMessage, BlockContext context) {
+        context.send("You said: " + userMessage, block.id());
+        return Uni.createFrom().item("again".equals(userMessage) ? Step.WAIT_FOR_INPUT : Step.next(block.nextBlockId()));
+    }
+}
@@ -0,0 +1,23 @@
+package org.acme.service.block;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.acme.domain.CompiledBlock;
+
+/**
+ * A block type that only exists in the tests, to check that plugged-in handlers are picked up.
+ * Says its "note" and moves on.
+ */
+@ApplicationScoped
+public class NoteBlockHandler implements BlockHandler {
+
+    @Override
+    public String type() {
+        return "TEST_NOTE";
+    }
+
+    @Override
+    public Step execute(CompiledBlock block, BlockContext context) {
+        context.send(block.data().path("note").asText(), block.id());
+        return Step.next(block.nextBlockId());
+    }
+}
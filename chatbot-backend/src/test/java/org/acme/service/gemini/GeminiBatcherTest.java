@@ -0,0 +1,93 @@
+package org.acme.service.gemini;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.acme.TestFixtures;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class GeminiBatcherTest {
+
+    private static final List<String> YES_NO = List.of("Yes", "No");
+
+    private GeminiBatcher batcher;
+    private GeminiGuard guard;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        guard = Mockito.mock(GeminiGuard.class);
+        registry = new SimpleMeterRegistry();
+        batcher = new GeminiBatcher();
+        batcher.geminiGuard = guard;
+        batcher.registry = registry;
+        batcher.enabled = true;
+        batcher.init();
+    }
+
+    @Test
+    void testFullBatchGoesOutAsOneRequestWithPerItemAnswers() {
+        // Arrange
+        batcher.maxSize = 4;
+        batcher.window = Duration.ofSeconds(30); // Only reaching max-size can send this batch in time
+        Mockito.when(guard.generateContent(any()))
+                .thenReturn(Uni.createFrom().item(TestFixtures.geminiResponse(
+                        "```json\n{\"1\": \"Yes\", \"2\": \"Maybe\", \"3\": \"Track my order\"}\n```")));
+
+        // Act
+        Uni<String> first = batcher.classify("yes", YES_NO).memoize().indefinitely();
+        Uni<String> second = batcher.classify("perhaps", YES_NO).memoize().indefinitely();
+        Uni<String> third = batcher.classify("where is my parcel", List.of("Track my order")).memoize().indefinitely();
+        Uni<String> fourth = batcher.classify("hmm", YES_NO).memoize().indefinitely();
+        List.of(first, second, third, fourth).forEach(uni -> uni.subscribe().with(item -> { }, failure -> { }));
+
+        // Assert
+        assertEquals("Yes", first.await().atMost(Duration.ofSeconds(5)));
+        assertEquals("NO_MATCH", second.await().atMost(Duration.ofSeconds(5)), "An answer outside the item's intents is no match.");
+        assertEquals("Track my order", third.await().atMost(Duration.ofSeconds(5)));
+        assertThrows(IllegalStateException.class, () -> fourth.await().atMost(Duration.ofSeconds(5)),
+                "An item the model left out must fail on its own.");
+        verify(guard, times(1)).generateContent(any());
+        assertEquals(1.0, registry.get("chatbot.gemini.batch.fill-ratio").summary().mean());
+    }
+
+    @Test
+    void testPartialBatchIsSentWhenTheWindowExpires() {
+        // Arrange
+        batcher.maxSize = 10;
+        batcher.window = Duration.ofMillis(50);
+        Mockito.when(guard.generateContent(any()))
+                .thenReturn(Uni.createFrom().item(TestFixtures.geminiResponse("{\"1\": \"No\", \"2\": \"Yes\"}")));
+
+        // Act
+        Uni<String> first = batcher.classify("no thanks", YES_NO).memoize().indefinitely();
+        Uni<String> second = batcher.classify("go ahead", YES_NO).memoize().indefinitely();
+        first.subscribe().with(item -> { });
+        second.subscribe().with(item -> { });
+
+        // Assert
+        assertEquals("No", first.await().atMost(Duration.ofSeconds(5)));
+        assertEquals("Yes", second.await().atMost(Duration.ofSeconds(5)));
+        verify(guard, times(1)).generateContent(any());
+        assertEquals(0.2, registry.get("chatbot.gemini.batch.fill-ratio").summary().mean(), 1e-9);
+    }
+
+    @Test
+    void testPromptCarriesEachMessageAsJson() {
+        String prompt = GeminiBatcher.buildBatchPrompt(List.of(
+                new GeminiBatcher.Pending(1, "say \"hi\"", YES_NO, null)));
+
+        assertTrue(prompt.contains("{\"id\":1,\"message\":\"say \\\"hi\\\"\",\"intents\":[\"Yes\",\"No\"]}"), prompt);
+    }
+}
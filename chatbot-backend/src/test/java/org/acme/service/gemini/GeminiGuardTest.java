@@ -0,0 +1,184 @@
+package org.acme.service.gemini;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.acme.TestFixtures;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+class GeminiGuardTest {
+
+    private static final GeminiRequest REQUEST = new GeminiRequest(List.of());
+
+    private GeminiGuard guard;
+    private GeminiClient client;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        client = Mockito.mock(GeminiClient.class);
+        registry = new SimpleMeterRegistry();
+        guard = new GeminiGuard();
+        guard.geminiClient = client;
+        guard.registry = registry;
+        guard.apiKey = "test-key";
+        guard.requestTimeout = Duration.ofSeconds(5);
+        guard.limiterEnabled = true;
+        guard.initialLimit = 20;
+        guard.minLimit = 1;
+        guard.maxLimit = 200;
+        guard.backoffRatio = 0.5;
+        guard.latencyThreshold = Duration.ofSeconds(5);
+        guard.maxWait = Optional.empty();
+        guard.breakerEnabled = true;
+        guard.breakerWindowSize = 10;
+        guard.breakerMinimumCalls = 4;
+        guard.breakerFailureRatio = 0.5;
+        guard.breakerOpenDuration = Duration.ofSeconds(30);
+    }
+
+    @Test
+    void testLimiterBacksOffOnDropsAndGrowsWhileInUse() {
+        AimdLimiter limiter = new AimdLimiter(4, 1, 10, 0.5);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire(), "The fifth concurrent call is over the limit.");
+
+        limiter.release(true);
+        assertEquals(2, limiter.limit(), "A drop halves the limit.");
+
+        limiter.release(false);
+        limiter.release(false);
+        assertTrue(limiter.limit() >= 2 && limiter.limit() < 4, "Successes only add about one per round trip.");
+    }
+
+    @Test
+    void testReleasedPermitGoesToTheOldestWaiter() {
+        AimdLimiter limiter = new AimdLimiter(1, 1, 1, 0.5);
+        assertTrue(limiter.acquire().isDone());
+        CompletableFuture<Void> first = limiter.acquire();
+        CompletableFuture<Void> second = limiter.acquire();
+        assertFalse(first.isDone());
+        assertFalse(limiter.tryAcquire(), "Nobody jumps the queue.");
+
+        limiter.release(false);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+
+        assertTrue(limiter.abandon(second));
+        limiter.release(false);
+        assertEquals(0, limiter.inFlight(), "An abandoned waiter doesn't get a permit.");
+    }
+
+    @Test
+    void testBreakerOpensOnFailuresAndClosesAfterASuccessfulTrial() {
+        // Arrange
+        AtomicLong now = new AtomicLong();
+        List<String> transitions = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, Duration.ofSeconds(30), now::get,
+                (from, to) -> transitions.add(from + "->" + to));
+
+        // Act & Assert
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire(), "An open circuit fails fast.");
+
+        now.addAndGet(Duration.ofSeconds(31).toNanos());
+        assertTrue(breaker.tryAcquire(), "After the open duration one trial call goes through...");
+        assertFalse(breaker.tryAcquire(), "...and only one.");
+        breaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    void testCallOverTheLimitWaitsForAPermit() {
+        // Arrange
+        guard.initialLimit = 1;
+        guard.maxLimit = 1;
+        guard.init();
+        CompletableFuture<GeminiResponse> first = new CompletableFuture<>();
+        Mockito.when(client.generateContent(anyString(), any()))
+                .thenReturn(Uni.createFrom().completionStage(first))
+                .thenReturn(Uni.createFrom().item(TestFixtures.geminiResponse("No")));
+        guard.generateContent(REQUEST).subscribe().with(response -> { });
+        CompletableFuture<GeminiResponse> second = guard.generateContent(REQUEST).subscribeAsCompletionStage();
+
+        // Act
+        assertFalse(second.isDone(), "The second call waits while the first holds the only permit.");
+        assertEquals(1.0, registry.get("chatbot.gemini.limiter.queued").gauge().value());
+        first.complete(TestFixtures.geminiResponse("Yes"));
+
+        // Assert
+        assertEquals("No", second.join().firstTextResult());
+        assertEquals(0.0, registry.get("chatbot.gemini.limiter.rejected").counter().count());
+    }
+
+    @Test
+    void testCallOverTheLimitFailsOnceTheWaitRunsOut() {
+        // Arrange
+        guard.initialLimit = 1;
+        guard.maxLimit = 1;
+        guard.maxWait = Optional.of(Duration.ofMillis(100));
+        guard.init();
+        Mockito.when(client.generateContent(anyString(), any())).thenReturn(Uni.createFrom().nothing());
+
+        // Act
+        guard.generateContent(REQUEST).subscribe().with(response -> { });
+
+        // Assert
+        assertThrows(GeminiUnavailableException.class, () -> guard.generateContent(REQUEST).await().atMost(Duration.ofSeconds(1)));
+        assertEquals(1.0, registry.get("chatbot.gemini.limiter.rejected").counter().count());
+        assertEquals(0.0, registry.get("chatbot.gemini.limiter.queued").gauge().value(), "The refused call left the queue.");
+        assertEquals(CircuitBreaker.State.CLOSED, guard.breakerState(), "A refused call says nothing about Gemini's health.");
+    }
+
+    @Test
+    void testSlowCallIsHedgedAfterP95() {
+        // Arrange
+        guard.hedgingEnabled = true;
+        guard.init();
+        GeminiResponse fast = TestFixtures.geminiResponse("Yes");
+        Mockito.when(client.generateContent(anyString(), any())).thenReturn(Uni.createFrom().item(fast));
+        for (int i = 0; i < 20; i++) {
+            guard.generateContent(REQUEST).await().indefinitely();
+        }
+        GeminiResponse hedged = TestFixtures.geminiResponse("No");
+        Mockito.when(client.generateContent(anyString(), any()))
+                .thenReturn(Uni.createFrom().nothing()) // The first attempt hangs
+                .thenReturn(Uni.createFrom().item(hedged));
+
+        // Act
+        GeminiResponse response = guard.generateContent(REQUEST).await().atMost(Duration.ofSeconds(2));
+
+        // Assert
+        assertEquals("No", response.firstTextResult());
+        assertEquals(1.0, registry.get("chatbot.gemini.hedges").counter().count());
+        // The losing attempt is cancelled right after the winner's answer is passed on
+        long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+        while (registry.get("chatbot.gemini.limiter.in-flight").gauge().value() > 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(0, registry.get("chatbot.gemini.limiter.in-flight").gauge().value(), "The losing attempt gives its permit back.");
+    }
+}
@@ -0,0 +1,47 @@
+package org.acme.service.gemini;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.QueryParam;
+import org.acme.TestFixtures;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for the Gemini API in tests, which point the "gemini-api" REST client at this application.
+ * It answers with the first of the prompt's intents that the message mentions, or NO_MATCH, so tests run offline.
+ * Tests that need a specific answer still mock {@link GeminiClient}.
+ */
+@Path("/v1beta/models/gemini-2.5-flash:generateContent")
+public class LocalGeminiResource {
+
+    public static final AtomicInteger CALLS = new AtomicInteger();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String INTENTS = "The possible intents are: ";
+    private static final String MESSAGE = "The user's message is: ";
+
+    @POST
+    public GeminiResponse generateContent(@QueryParam("key") String apiKey, GeminiRequest request) throws IOException {
+        CALLS.incrementAndGet();
+        // The prompt has the intents as a JSON array and ends with the message as a JSON string, see IntentPrompt
+        String prompt = request.contents.get(0).parts.get(0).text;
+        int intentsStart = prompt.indexOf(INTENTS) + INTENTS.length();
+        List<?> intents = MAPPER.readValue(prompt.substring(intentsStart, prompt.indexOf("].", intentsStart) + 1), List.class);
+        String message = MAPPER.readValue(prompt.substring(prompt.lastIndexOf(MESSAGE) + MESSAGE.length()), String.class)
+                .toLowerCase(Locale.ROOT);
+
+        String answer = "NO_MATCH";
+        for (Object intent : intents) {
+            if (message.contains(intent.toString().toLowerCase(Locale.ROOT))) {
+                answer = intent.toString();
+                break;
+            }
+        }
+        return TestFixtures.geminiResponse(answer);
+    }
+}
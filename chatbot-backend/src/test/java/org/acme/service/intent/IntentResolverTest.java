@@ -0,0 +1,128 @@
+package org.acme.service.intent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import org.acme.domain.Block;
+import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledBlock;
+import org.acme.domain.CompiledFlow;
+import org.acme.domain.LocalIntentMatcher;
+import org.acme.service.gemini.GeminiService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@QuarkusTest
+class IntentResolverTest {
+
+    @Inject
+    IntentResolver intentResolver;
+
+    @Inject
+    MeterRegistry registry;
+
+    @InjectMock
+    GeminiService geminiServiceMock;
+
+    private CompiledBlock block;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper mapper = new ObjectMapper();
+        Block intentBlock = new Block();
+        intentBlock.id = "block-intent";
+        intentBlock.type = "INTENT_DETECTION";
+        ObjectNode data = mapper.createObjectNode();
+        data.putArray("intents").add("Yes").add("No").add("Talk to an agent");
+        ObjectNode synonyms = data.putObject("synonyms");
+        synonyms.putArray("Yes").add("yep").add("sure thing");
+        data.putObject("patterns").put("No", "^(nah|nope)\\b");
+        intentBlock.data = data;
+
+        ChatbotFlow flow = new ChatbotFlow();
+        flow.flowId = "intent-test-flow";
+        flow.blocks = List.of(intentBlock);
+        block = CompiledFlow.compile(flow).block("block-intent");
+
+        Mockito.when(geminiServiceMock.determineIntent(anyString(), anyList(), anyString()))
+                .thenReturn(Uni.createFrom().item("Talk to an agent"));
+    }
+
+    @Test
+    void testObviousMessagesAreResolvedLocally() {
+        // Arrange
+        double localHitsBefore = stageCount("local", "resolved");
+
+        // Act & Assert
+        assertEquals("Yes", resolve("Yes!"));
+        assertEquals("Yes", resolve("Sure thing"));
+        assertEquals("No", resolve("nope, not today"));
+        assertEquals("Talk to an agent", resolve("talk to an agent please"));
+
+        verify(geminiServiceMock, never()).determineIntent(anyString(), anyList(), anyString());
+        assertEquals(localHitsBefore + 4, stageCount("local", "resolved"));
+    }
+
+    @Test
+    void testAmbiguousMessagesGoToGemini() {
+        // Arrange
+        double geminiHitsBefore = stageCount("gemini", "resolved");
+
+        // Act
+        String intent = resolve("I'd like a human to help me with my bill");
+
+        // Assert
+        assertEquals("Talk to an agent", intent);
+        verify(geminiServiceMock, times(1)).determineIntent(anyString(), anyList(), anyString());
+        assertEquals(geminiHitsBefore + 1, stageCount("gemini", "resolved"));
+    }
+
+    @Test
+    void testLocalMatcherOnlyAnswersWhenConfident() {
+        LocalIntentMatcher matcher = block.matcher();
+
+        assertNull(matcher.match("yes and no"), "Two intents match, so the message is ambiguous.");
+        assertNull(matcher.match("do not talk to an agent"), "A negated intent is not the intent.");
+        assertNull(matcher.match("I was wondering whether yes is the right answer here"), "Too many other words to be sure.");
+        assertEquals("No", matcher.match("no"));
+    }
+
+    @Test
+    void testNormalize() {
+        assertEquals("talk to an agent", LocalIntentMatcher.normalize("  Talk   to an\tAGENT!! "));
+        assertEquals("yes", LocalIntentMatcher.normalize("Yes."));
+        assertEquals("", LocalIntentMatcher.normalize("?!"));
+    }
+
+    @Test
+    void testInvalidPatternIsRejectedAtUpload() {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode patterns = mapper.createObjectNode().put("Yes", "(unclosed");
+
+        assertThrows(IllegalArgumentException.class, () -> LocalIntentMatcher.compile(List.of("Yes"), null, patterns));
+    }
+
+    private String resolve(String message) {
+        return intentResolver.resolve(block, message).await().indefinitely();
+    }
+
+    private double stageCount(String stage, String outcome) {
+        return registry.get("chatbot.intent.resolution").tag("stage", stage).tag("outcome", outcome).timer().count();
+    }
+}
@@ -0,0 +1,157 @@
+package org.acme.service.intent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.acme.domain.Block;
+import org.acme.domain.ChatbotFlow;
+import org.acme.domain.CompiledBlock;
+import org.acme.domain.CompiledFlow;
+import org.acme.domain.FlowIssue;
+import org.acme.domain.IntentBackend;
+import org.acme.domain.NearestIntentIndex;
+import org.acme.service.gemini.GeminiGuard;
+import org.acme.service.gemini.IntentCache;
+import org.acme.service.gemini.LocalGeminiResource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against the real GeminiService, which calls LocalGeminiResource instead of the Gemini API.
+ */
+@QuarkusTest
+class NearestNeighborIntentStageTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final List<String> INTENTS = List.of("Track my order", "Talk to an agent", "Cancel my subscription");
+
+    @Inject
+    IntentResolver intentResolver;
+
+    @Inject
+    IntentCache intentCache;
+
+    @Inject
+    GeminiGuard geminiGuard;
+
+    @BeforeEach
+    void setUp() {
+        intentCache.invalidateAll();
+        geminiGuard.reset();
+    }
+
+    @Test
+    void testParaphrasesOfExamplesAreResolvedWithoutGemini() {
+        // Arrange
+        CompiledBlock block = block(null);
+        int callsBefore = LocalGeminiResource.CALLS.get();
+
+        // Act & Assert
+        assertEquals("Talk to an agent", resolve(block, "connect me to a real person"));
+        assertEquals("Cancel my subscription", resolve(block, "please cancel my membership"));
+        assertEquals("Track my order", resolve(block, "where's my package??"));
+        assertEquals(callsBefore, LocalGeminiResource.CALLS.get());
+    }
+
+    @Test
+    void testMessagesFarFromEveryExampleGoToGemini() {
+        // Arrange
+        CompiledBlock block = block(null);
+        int callsBefore = LocalGeminiResource.CALLS.get();
+
+        // Act
+        String intent = resolve(block, "what's the weather like tomorrow");
+
+        // Assert
+        assertEquals("NO_MATCH", intent);
+        assertEquals(callsBefore + 1, LocalGeminiResource.CALLS.get());
+    }
+
+    @Test
+    void testClassifierIsChosenPerBlock() {
+        // Arrange
+        CompiledBlock local = block("local");
+        CompiledBlock gemini = block("gemini");
+        int callsBefore = LocalGeminiResource.CALLS.get();
+
+        // Act & Assert
+        assertEquals("NO_MATCH", resolve(local, "what's the weather like on the weekend"));
+        assertEquals(callsBefore, LocalGeminiResource.CALLS.get(), "A local block never calls Gemini.");
+
+        assertEquals("NO_MATCH", resolve(gemini, "connect me to a real person"), "The stand-in only knows the intents' own words.");
+        assertEquals(callsBefore + 1, LocalGeminiResource.CALLS.get());
+    }
+
+    @Test
+    void testLookupTakesWellUnderAMillisecond() {
+        // Arrange: 100 intents with 5 examples each
+        List<String> intents = new ArrayList<>();
+        ObjectNode examples = MAPPER.createObjectNode();
+        for (int i = 0; i < 100; i++) {
+            String intent = "intent " + i;
+            intents.add(intent);
+            for (int j = 0; j < 5; j++) {
+                examples.withArray(intent).add("example number " + j + " of the intent called " + i + " with some words");
+            }
+        }
+        NearestIntentIndex index = NearestIntentIndex.compile(intents, examples, Double.NaN);
+        for (int i = 0; i < 2_000; i++) {
+            index.nearest("warming up the lookup number " + i); // Let the JIT compile it first
+        }
+
+        // Act
+        int lookups = 10_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            index.nearest("is this example number " + (i % 5) + " of intent " + (i % 100) + "?");
+        }
+        long perLookup = (System.nanoTime() - start) / lookups;
+
+        // Assert
+        assertTrue(perLookup < 1_000_000, "A lookup took " + perLookup + "ns");
+    }
+
+    @Test
+    void testBadClassifierDataIsLeftOutAndReported() {
+        // Examples for an intent the block doesn't have, and the rest of the block compiles anyway
+        JsonNode unknownIntent = MAPPER.createObjectNode().set("Refund", MAPPER.createArrayNode().add("money back"));
+        assertTrue(NearestIntentIndex.compile(INTENTS, unknownIntent, Double.NaN).nearest("money back").similarity() < 1);
+
+        CompiledBlock magic = block("magic");
+        assertEquals(IntentBackend.AUTO, magic.classifier());
+        assertEquals(List.of("UNKNOWN_CLASSIFIER"), magic.dataIssues().stream().map(FlowIssue::code).toList());
+    }
+
+    private static CompiledBlock block(String classifier) {
+        ObjectNode data = MAPPER.createObjectNode();
+        INTENTS.forEach(data.putArray("intents")::add);
+        ObjectNode examples = data.putObject("examples");
+        examples.putArray("Track my order").add("where is my package").add("my parcel hasn't arrived yet").add("when will my order arrive");
+        examples.putArray("Talk to an agent").add("can I speak to a human").add("connect me to a person").add("I want a real person");
+        examples.putArray("Cancel my subscription").add("I want to stop my plan").add("cancel my membership").add("unsubscribe me");
+        if (classifier != null) {
+            data.put("classifier", classifier);
+        }
+
+        Block block = new Block();
+        block.id = "block-examples";
+        block.type = "INTENT_DETECTION";
+        block.data = data;
+        ChatbotFlow flow = new ChatbotFlow();
+        flow.flowId = "nearest-neighbor-test-flow";
+        flow.blocks = List.of(block);
+        return CompiledFlow.compile(flow).block("block-examples");
+    }
+
+    private String resolve(CompiledBlock block, String message) {
+        return intentResolver.resolve(block, message).await().indefinitely();
+    }
+}
@@ -0,0 +1,95 @@
+package org.acme.service.outbound;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.helpers.test.UniAssertSubscriber;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.acme.TestFixtures;
+import org.acme.service.outbound.OutboundChannels.SlowConsumerPolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+
+class OutboundChannelsTest {
+
+    private SimpleMeterRegistry registry;
+    private Session session;
+    // What the client got, and the sends it hasn't finished reading
+    private final List<String> sent = new ArrayList<>();
+    private final List<SendHandler> inFlight = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        session = TestFixtures.slowSession("outbound-session", (text, handler) -> {
+            sent.add(text);
+            inFlight.add(handler);
+        });
+    }
+
+    @Test
+    void testTurnGoesOutAsOneEnvelope() {
+        OutboundChannels channels = new OutboundChannels(true, true, 1 << 20, SlowConsumerPolicy.DROP, registry);
+
+        channels.send(session, List.of(new Reply("Hi!", "block-hi"), new Reply("How can I help?", "block-ask")));
+
+        assertEquals(List.of("{\"messages\":[{\"text\":\"Hi!\",\"blockId\":\"block-hi\"},{\"text\":\"How can I help?\",\"blockId\":\"block-ask\"}]}"), sent);
+    }
+
+    @Test
+    void testFramesAreSentOneAtATimeAndDroppedAboveTheCap() {
+        OutboundChannels channels = new OutboundChannels(false, false, 10, SlowConsumerPolicy.DROP, registry);
+
+        channels.send(session, List.of(new Reply("aaaaaa", null), new Reply("bbbb", null), new Reply("cccc", null)));
+
+        // The first one is in flight, the second waits behind it and the third doesn't fit
+        assertEquals(List.of("aaaaaa"), sent);
+        assertEquals(1, registry.get("chatbot.websocket.send-queue.frames").gauge().value());
+        assertEquals(10, registry.get("chatbot.websocket.send-queue.bytes").gauge().value());
+        assertEquals(1, registry.get("chatbot.websocket.slow-consumer").tag("action", "dropped").counter().count());
+
+        complete();
+        complete();
+
+        assertEquals(List.of("aaaaaa", "bbbb"), sent);
+        assertEquals(0, registry.get("chatbot.websocket.send-queue.bytes").gauge().value());
+        assertEquals(2, registry.get("chatbot.websocket.send").tag("result", "ok").timer().count());
+    }
+
+    @Test
+    void testPauseWaitsUntilTheClientCaughtUp() {
+        OutboundChannels channels = new OutboundChannels(false, false, 10, SlowConsumerPolicy.PAUSE, registry);
+
+        channels.send(session, List.of(new Reply("aaaaaaaa", null), new Reply("bbbbbbbb", null)));
+        UniAssertSubscriber<Void> writable = channels.whenWritable(session).subscribe().withSubscriber(UniAssertSubscriber.create());
+
+        writable.assertNotTerminated();
+        complete();
+        writable.assertCompleted();
+        assertEquals(List.of("aaaaaaaa", "bbbbbbbb"), sent);
+        assertEquals(1, registry.get("chatbot.websocket.slow-consumer").tag("action", "paused").counter().count());
+    }
+
+    @Test
+    void testCloseDropsTheConnection() throws Exception {
+        OutboundChannels channels = new OutboundChannels(false, false, 10, SlowConsumerPolicy.CLOSE, registry);
+
+        channels.send(session, List.of(new Reply("aaaaaaaa", null), new Reply("bbbbbbbb", null), new Reply("cc", null)));
+
+        verify(session).close(any(CloseReason.class));
+        assertEquals(List.of("aaaaaaaa"), sent);
+        assertEquals(1, registry.get("chatbot.websocket.slow-consumer").tag("action", "closed").counter().count());
+    }
+
+    private void complete() {
+        inFlight.remove(0).onResult(new SendResult());
+    }
+}
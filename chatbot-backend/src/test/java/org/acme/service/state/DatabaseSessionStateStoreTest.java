@@ -0,0 +1,249 @@
+package org.acme.service.state;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.Session;
+import org.acme.TestFixtures;
+import org.acme.domain.Block;
+import org.acme.domain.ChatbotFlow;
+import org.acme.persistence.ConversationState;
+import org.acme.service.ChatbotService;
+import org.acme.service.ConfigService;
+import org.acme.web.StartWebSocket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+@QuarkusTest
+@TestProfile(DatabaseSessionStateStoreTest.DatabaseStore.class)
+class DatabaseSessionStateStoreTest {
+
+    public static class DatabaseStore implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("chatbot.session-state.store", "database");
+        }
+    }
+
+    @Inject
+    DatabaseSessionStateStore store;
+
+    @Inject
+    StartWebSocket startWebSocket;
+
+    @Inject
+    ConfigService configService;
+
+    @BeforeEach
+    void setUp() {
+        store.flush();
+        QuarkusTransaction.requiringNew().run(() -> ConversationState.deleteAll());
+
+        ObjectMapper mapper = new ObjectMapper();
+        ChatbotFlow flow = new ChatbotFlow();
+        flow.flowId = "session-state-test-flow";
+        flow.startBlockId = "block-welcome";
+
+        Block blockWelcome = new Block();
+        blockWelcome.id = "block-welcome";
+        blockWelcome.type = "MESSAGE";
+        blockWelcome.data = mapper.createObjectNode().put("text", "Welcome!");
+        blockWelcome.nextBlockId = "block-intent";
+
+        Block blockIntent = new Block();
+        blockIntent.id = "block-intent";
+        blockIntent.type = "INTENT_DETECTION";
+        ObjectNode data = mapper.createObjectNode();
+        data.putArray("intents").add("Get Weather");
+        data.set("mappings", mapper.createObjectNode().put("Get Weather", "block-weather"));
+        data.put("fallbackBlockId", "block-weather");
+        blockIntent.data = data;
+
+        Block blockWeather = new Block();
+        blockWeather.id = "block-weather";
+        blockWeather.type = "MESSAGE";
+        blockWeather.data = mapper.createObjectNode().put("text", "It is sunny.");
+
+        flow.blocks = List.of(blockWelcome, blockIntent, blockWeather);
+        configService.updateFlow(flow);
+    }
+
+    @Test
+    void testOnlyTheLatestBlockIsWrittenAndLoadedOnAttach() {
+        store.put("conversation-a", "block-1", true);
+        store.put("conversation-a", "block-2", true);
+        store.flush();
+        assertEquals("block-2", stored("conversation-a"));
+
+        // Another node, or this one after a reconnect, only has the database
+        assertEquals("block-2", store.detach("conversation-a"));
+        assertNull(store.get("conversation-a"));
+        assertEquals("block-2", store.attach("conversation-a"));
+        assertEquals("block-2", store.get("conversation-a"));
+
+        store.put("conversation-a", "block-3", true);
+        store.flush();
+        assertEquals("block-3", stored("conversation-a"));
+        long rows = QuarkusTransaction.requiringNew().call(() -> ConversationState.count());
+        assertEquals(1, rows);
+    }
+
+    @Test
+    void testAttachPrefersAChangeThatIsNotWrittenYet() {
+        store.put("conversation-b", "block-1", true);
+        store.flush();
+        store.put("conversation-b", "block-2", true);
+        store.detach("conversation-b");
+
+        assertEquals("block-2", store.attach("conversation-b"));
+    }
+
+    @Test
+    void testConversationWithoutAnIdIsNeverWritten() {
+        store.put("anonymous-session", "block-1", false);
+        store.flush();
+
+        assertEquals("block-1", store.get("anonymous-session"));
+        assertNull(stored("anonymous-session"));
+    }
+
+    @Test
+    void testConversationsNotUpdatedForTheRetentionAreDeleted() {
+        QuarkusTransaction.requiringNew().run(() -> {
+            ConversationState old = new ConversationState("old-conversation", "block-1");
+            old.updatedAt = Instant.now().minus(Duration.ofDays(31));
+            old.persist();
+            new ConversationState("recent-conversation", "block-1").persist();
+        });
+
+        store.deleteExpired();
+
+        assertNull(stored("old-conversation"));
+        assertEquals("block-1", stored("recent-conversation"));
+    }
+
+    @Test
+    void testConversationResumesAfterReconnect() throws InterruptedException {
+        List<String> firstConnection = new CopyOnWriteArrayList<>();
+        CountDownLatch welcomed = new CountDownLatch(1);
+        Session first = mockSession("connection-1", "resumable-conversation-1", text -> {
+            firstConnection.add(text);
+            welcomed.countDown();
+        });
+        startWebSocket.onOpen(first);
+        assertTrue(welcomed.await(5, TimeUnit.SECONDS), "The first connection was not welcomed.");
+        startWebSocket.onClose(first);
+        awaitDetachedAndStored(SessionStateStore.key("session-state-test-flow", "resumable-conversation-1"), "block-intent");
+
+        List<String> secondConnection = new CopyOnWriteArrayList<>();
+        CountDownLatch answered = new CountDownLatch(1);
+        Session second = mockSession("connection-2", "resumable-conversation-1", text -> {
+            secondConnection.add(text);
+            answered.countDown();
+        });
+        startWebSocket.onOpen(second);
+        startWebSocket.onMessage("Get Weather", second);
+
+        assertTrue(answered.await(5, TimeUnit.SECONDS), "The resumed conversation got no answer.");
+        assertEquals(List.of("Welcome!"), firstConnection);
+        assertEquals(List.of("It is sunny."), secondConnection); // Not welcomed a second time
+        startWebSocket.onClose(second);
+    }
+
+    @Test
+    void testSameConversationIdWithAnotherFlowIsAnotherConversation() throws InterruptedException {
+        // Arrange: a second flow with a block of the same id, where the first flow's conversation waits
+        ChatbotFlow other = new ChatbotFlow();
+        other.flowId = "session-state-other-flow";
+        other.startBlockId = "block-hello";
+        Block blockHello = new Block();
+        blockHello.id = "block-hello";
+        blockHello.type = "MESSAGE";
+        blockHello.data = new ObjectMapper().createObjectNode().put("text", "Hello from the other flow!");
+        blockHello.nextBlockId = "block-intent";
+        Block blockIntent = new Block();
+        blockIntent.id = "block-intent";
+        blockIntent.type = "INTENT_DETECTION";
+        ObjectNode data = new ObjectMapper().createObjectNode().put("fallbackBlockId", "block-hello");
+        data.putArray("intents").add("Say hello");
+        blockIntent.data = data;
+        other.blocks = List.of(blockHello, blockIntent);
+        configService.updateFlow(other);
+
+        CountDownLatch welcomed = new CountDownLatch(1);
+        Session first = mockSession("connection-4", "shared-conversation-1", text -> welcomed.countDown());
+        first.getUserProperties().put(ChatbotService.FLOW_ID, "session-state-test-flow");
+        startWebSocket.onOpen(first);
+        assertTrue(welcomed.await(5, TimeUnit.SECONDS), "The first connection was not welcomed.");
+        startWebSocket.onClose(first);
+        awaitDetachedAndStored(SessionStateStore.key("session-state-test-flow", "shared-conversation-1"), "block-intent");
+
+        // Act
+        List<String> sent = new CopyOnWriteArrayList<>();
+        CountDownLatch greeted = new CountDownLatch(1);
+        Session second = mockSession("connection-5", "shared-conversation-1", text -> {
+            sent.add(text);
+            greeted.countDown();
+        });
+        Mockito.when(second.getRequestParameterMap()).thenReturn(Map.of(
+                "conversationId", List.of("shared-conversation-1"), "flowId", List.of("session-state-other-flow")));
+        startWebSocket.onOpen(second);
+
+        // Assert: the other flow starts from its beginning instead of resuming at its own block-intent
+        assertTrue(greeted.await(5, TimeUnit.SECONDS), "The second connection was not greeted.");
+        assertEquals(List.of("Hello from the other flow!"), sent);
+        startWebSocket.onClose(second);
+    }
+
+    @Test
+    void testInvalidConversationIdIsRejected() throws Exception {
+        Session session = mockSession("connection-3", "not valid!", text -> {
+        });
+        startWebSocket.onOpen(session);
+
+        Mockito.verify(session).close(any());
+        Mockito.verify(session.getAsyncRemote(), Mockito.never()).sendText(any(String.class), any(SendHandler.class));
+    }
+
+    // The close is handled asynchronously, like everything else in the session's mailbox
+    private void awaitDetachedAndStored(String conversationId, String blockId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((store.get(conversationId) != null || !blockId.equals(stored(conversationId))) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNull(store.get(conversationId));
+        assertEquals(blockId, stored(conversationId));
+    }
+
+    private static String stored(String conversationId) {
+        return QuarkusTransaction.requiringNew().call(() -> {
+            ConversationState state = ConversationState.findById(conversationId);
+            return state != null ? state.blockId : null;
+        });
+    }
+
+    private static Session mockSession(String id, String conversationId, java.util.function.Consumer<String> onSend) {
+        Session session = TestFixtures.session(id, onSend);
+        Mockito.when(session.getRequestParameterMap()).thenReturn(Map.of("conversationId", List.of(conversationId)));
+        return session;
+    }
+}
@@ -0,0 +1,64 @@
+package org.acme.service.state;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SessionStateCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Map<String, String> evicted = new ConcurrentHashMap<>();
+
+    @Test
+    void testLeastRecentlyActiveConversationIsDroppedAboveTheCap() {
+        SessionStateCache cache = new SessionStateCache(Duration.ofMinutes(30), 2, registry);
+        cache.onEvicted(evicted::put);
+
+        cache.put("conversation-1", "block-a");
+        cache.put("conversation-2", "block-b");
+        cache.get("conversation-1"); // conversation-2 is now the least recently active
+        cache.put("conversation-3", "block-c");
+
+        assertEquals(Map.of("conversation-2", "block-b"), evicted);
+        assertNull(cache.get("conversation-2"));
+        assertEquals("block-a", cache.get("conversation-1"));
+        assertEquals("block-c", cache.get("conversation-3"));
+        assertEquals(1.0, registry.get("chatbot.sessions.evicted").tag("cause", "size").functionCounter().count());
+    }
+
+    @Test
+    void testIdleConversationExpiresWithoutFurtherTraffic() throws InterruptedException {
+        SessionStateCache cache = new SessionStateCache(Duration.ofMillis(100), 100, registry);
+        cache.onEvicted(evicted::put);
+
+        cache.put("conversation-1", "block-a");
+
+        // Nothing touches the cache from here on, the scheduler has to expire the entry by itself
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (evicted.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(Map.of("conversation-1", "block-a"), evicted);
+        assertEquals(1.0, registry.get("chatbot.sessions.evicted").tag("cause", "expired").functionCounter().count());
+        assertEquals(0.0, registry.get("chatbot.sessions.tracked").gauge().value());
+    }
+
+    @Test
+    void testClosedConversationIsNotReportedAsEvicted() {
+        SessionStateCache cache = new SessionStateCache(Duration.ofMinutes(30), 1, registry);
+        cache.onEvicted(evicted::put);
+
+        cache.put("conversation-1", "block-a");
+        assertEquals("block-a", cache.remove("conversation-1"));
+        cache.put("conversation-2", "block-b");
+
+        assertEquals(Map.of(), evicted);
+    }
+}
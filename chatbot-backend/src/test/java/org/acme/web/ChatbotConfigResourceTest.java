@@ -0,0 +1,127 @@
+package org.acme.web;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.acme.service.ConfigService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@QuarkusTest
+class ChatbotConfigResourceTest {
+
+    private static final String WELCOME = "\"startBlockId\":\"block-welcome\",\"blocks\":["
+            + "{\"id\":\"block-welcome\",\"type\":\"MESSAGE\",\"data\":{\"text\":\"Welcome!\"}}]";
+
+    @Inject
+    ConfigService configService;
+
+    @BeforeEach
+    void setUp() {
+        configService.clear();
+    }
+
+    @Test
+    void testFlowCrud() {
+        given().contentType(ContentType.JSON)
+                .body("{\"name\":\"First\"," + WELCOME + "}")
+                .put("/api/config/flows/crud-flow-1")
+                .then().statusCode(200);
+        given().contentType(ContentType.JSON)
+                .body("{\"flowId\":\"crud-flow-2\",\"name\":\"Second\"," + WELCOME + "}")
+                .put("/api/config/flows/crud-flow-2")
+                .then().statusCode(200);
+
+        given().get("/api/config/flows/crud-flow-1")
+                .then().statusCode(200)
+                .body("flowId", equalTo("crud-flow-1"))
+                .body("name", equalTo("First"))
+                .body("blocks[0].data.text", equalTo("Welcome!"));
+        // That came from the flow's payload, the compiled flow keeps no tree of a built-in block's data
+        assertNull(configService.getCompiledFlow("crud-flow-1").source().blocks.get(0).data);
+        given().get("/api/config/flows")
+                .then().statusCode(200)
+                .body("flowId", contains("crud-flow-1", "crud-flow-2"))
+                .body("version", contains(1, 1));
+        given().get("/api/config")
+                .then().statusCode(200)
+                .body("flowId", equalTo("crud-flow-2"));
+
+        given().delete("/api/config/flows/crud-flow-1").then().statusCode(204);
+        given().get("/api/config/flows/crud-flow-1").then().statusCode(404);
+        given().delete("/api/config/flows/crud-flow-1").then().statusCode(404);
+    }
+
+    @Test
+    void testMismatchedFlowIdIsRejected() {
+        given().contentType(ContentType.JSON)
+                .body("{\"flowId\":\"another-flow\"," + WELCOME + "}")
+                .put("/api/config/flows/crud-flow-1")
+                .then().statusCode(400);
+    }
+
+    @Test
+    void testBrokenFlowGetsItsProblemsListed() {
+        given().contentType(ContentType.JSON)
+                .body("{\"flowId\":\"broken-flow\",\"startBlockId\":\"block-welcome\",\"blocks\":["
+                        + "{\"id\":\"block-welcome\",\"type\":\"MESSAGE\",\"data\":{\"text\":\"Hi\"},\"nextBlockId\":\"block-gone\"},"
+                        + "{\"id\":\"block-orphan\",\"type\":\"MESSAGE\",\"data\":{\"text\":\"Nobody gets here\"}}]}")
+                .post("/api/config")
+                .then().statusCode(400)
+                .body("issueCount", equalTo(2))
+                .body("issues.code", contains("DANGLING_NEXT", "UNREACHABLE"))
+                .body("issues.blockId", contains("block-welcome", "block-orphan"));
+    }
+
+    @Test
+    void testBadClassifierDataIsListedWithTheOtherProblems() {
+        given().contentType(ContentType.JSON)
+                .body("{\"flowId\":\"bad-classifier-flow\",\"startBlockId\":\"ask\",\"blocks\":["
+                        + "{\"id\":\"ask\",\"type\":\"INTENT_DETECTION\",\"data\":{\"intents\":[\"Yes\"],\"classifier\":\"magic\","
+                        + "\"examples\":{\"Refund\":[\"money back\"]},\"minSimilarity\":\"high\",\"fallbackBlockId\":\"ask\"}}]}")
+                .post("/api/config")
+                .then().statusCode(400)
+                .body("issues.code", contains("UNKNOWN_CLASSIFIER", "UNKNOWN_EXAMPLE_INTENT", "BAD_MIN_SIMILARITY"));
+    }
+
+    @Test
+    void testInvalidPatternIsListedWithTheOtherProblems() {
+        given().contentType(ContentType.JSON)
+                .body("{\"flowId\":\"bad-pattern-flow\",\"startBlockId\":\"ask\",\"blocks\":["
+                        + "{\"id\":\"ask\",\"type\":\"INTENT_DETECTION\",\"data\":{\"intents\":[\"Yes\"],"
+                        + "\"patterns\":{\"Yes\":\"(unclosed\"},\"fallbackBlockId\":\"ask\"}}]}")
+                .post("/api/config")
+                .then().statusCode(400)
+                .body("issues.code", contains("BAD_PATTERN"))
+                .body("issues[0].message", startsWith("Block 'ask': Invalid pattern for intent 'Yes'"));
+    }
+
+    @Test
+    void testUploadsThatAreNotFlowsAreRejected() {
+        // Unknown fields are skipped, as before
+        given().contentType(ContentType.JSON)
+                .body("{\"flowId\":\"streamed-flow\",\"owner\":{\"team\":[\"bots\"]}," + WELCOME + "}")
+                .post("/api/config")
+                .then().statusCode(200);
+        given().get("/api/config/flows/streamed-flow").then().statusCode(200).body("blocks.id", contains("block-welcome"));
+
+        given().contentType(ContentType.JSON).body("").post("/api/config").then().statusCode(400);
+        given().contentType(ContentType.JSON).body("[]").post("/api/config").then().statusCode(400);
+        given().contentType(ContentType.JSON).body("{\"flowId\":\"cut-off\",\"blocks\":[{\"id\":")
+                .post("/api/config")
+                .then().statusCode(400)
+                .body("error", startsWith("The flow is not valid JSON"));
+        // A body that isn't a flow stops the upload where it is, whatever follows
+        given().contentType(ContentType.JSON)
+                .body("{\"flowId\":\"not-a-flow\",\"blocks\":{\"id\":\"ask\"}, not even JSON")
+                .post("/api/config")
+                .then().statusCode(400)
+                .body("error", equalTo("blocks must be an array."));
+    }
+}
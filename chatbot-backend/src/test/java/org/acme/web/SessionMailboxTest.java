@@ -0,0 +1,141 @@
+package org.acme.web;
+
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.acme.web.SessionMailbox.Event;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionMailboxTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testEventsAreHandledOneAtATimeAndInOrder() throws Exception {
+        // Arrange
+        int producers = 4;
+        int eventsPerProducer = 500;
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(producers * eventsPerProducer);
+        SessionMailbox mailbox = new SessionMailbox(executor, false, event -> Uni.createFrom().voidItem()
+                .invoke(() -> {
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    handled.add(event.message());
+                    active.decrementAndGet();
+                    done.countDown();
+                }));
+
+        // Act
+        ExecutorService producerPool = Executors.newFixedThreadPool(producers);
+        try {
+            List<CompletableFuture<Void>> posts = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                posts.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        mailbox.post(Event.message(producer + ":" + i));
+                    }
+                }, producerPool));
+            }
+            CompletableFuture.allOf(posts.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        } finally {
+            producerPool.shutdown();
+        }
+
+        // Assert
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Not every event was handled.");
+        assertEquals(1, maxActive.get(), "Events of one session must never run concurrently.");
+        for (int p = 0; p < producers; p++) {
+            String prefix = p + ":";
+            List<String> fromProducer = handled.stream().filter(message -> message.startsWith(prefix)).toList();
+            for (int i = 0; i < eventsPerProducer; i++) {
+                assertEquals(prefix + i, fromProducer.get(i), "Events from one producer were reordered.");
+            }
+        }
+    }
+
+    @Test
+    void testNextEventWaitsForTheAsyncWorkOfThePreviousOne() throws Exception {
+        // Arrange
+        AtomicReference<UniEmitter<? super Void>> inFlight = new AtomicReference<>();
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        SessionMailbox mailbox = new SessionMailbox(executor, false, event -> {
+            handled.add(event.message());
+            return Uni.createFrom().<Void>emitter(inFlight::set);
+        });
+
+        // Act
+        mailbox.post(Event.message("first"));
+        mailbox.post(Event.message("second"));
+        Thread.sleep(200);
+
+        // Assert
+        assertEquals(List.of("first"), handled, "The second message must wait until the first turn completes.");
+        completeInFlight(inFlight);
+        waitFor(() -> handled.size() == 2);
+        assertEquals(List.of("first", "second"), handled);
+    }
+
+    @Test
+    void testMessagesPostedDuringATurnAreCoalesced() throws Exception {
+        // Arrange
+        AtomicReference<UniEmitter<? super Void>> inFlight = new AtomicReference<>();
+        List<Event> handled = Collections.synchronizedList(new ArrayList<>());
+        SessionMailbox mailbox = new SessionMailbox(executor, true, event -> {
+            handled.add(event);
+            return Uni.createFrom().<Void>emitter(inFlight::set);
+        });
+
+        // Act
+        mailbox.post(Event.message("I want"));
+        waitFor(() -> handled.size() == 1);
+        mailbox.post(Event.message("to track"));
+        mailbox.post(Event.message("my order"));
+        mailbox.post(Event.close());
+        completeInFlight(inFlight);
+        waitFor(() -> handled.size() == 2);
+        completeInFlight(inFlight);
+        waitFor(() -> handled.size() == 3);
+
+        // Assert
+        assertEquals(Event.message("I want"), handled.get(0));
+        assertEquals(Event.message("to track\nmy order"), handled.get(1), "Pending messages should be classified together.");
+        assertEquals(Event.close(), handled.get(2), "Only messages are merged, other events keep their place.");
+    }
+
+    private static void completeInFlight(AtomicReference<UniEmitter<? super Void>> inFlight) throws InterruptedException {
+        waitFor(() -> inFlight.get() != null);
+        inFlight.getAndSet(null).complete(null);
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting for the mailbox.");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package org.acme.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.arc.ClientProxy;
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.Session;
+import org.acme.TestFixtures;
+import org.acme.domain.Block;
+import org.acme.domain.ChatbotFlow;
+import org.acme.persistence.ConversationEntry;
+import org.acme.persistence.TranscriptJournal;
+import org.acme.service.ConfigService;
+import org.acme.service.ConversationExecutor;
+import org.acme.service.gemini.GeminiClient;
+import org.eclipse.microprofile.context.ManagedExecutor;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+@QuarkusTest
+class StartWebSocketTest {
+
+    private static final int SESSIONS = 1000;
+    private static final long GEMINI_LATENCY_MS = 100;
+
+    @Inject
+    StartWebSocket startWebSocket;
+
+    @Inject
+    ConfigService configService;
+
+    @Inject
+    TranscriptJournal transcriptJournal;
+
+    @Inject
+    ManagedExecutor managedExecutor;
+
+    @Inject
+    MeterRegistry registry;
+
+    @InjectMock
+    @RestClient
+    GeminiClient geminiClientMock;
+
+    private StartWebSocket endpoint; // The bean itself, behind the client proxy
+    private ConversationExecutor configuredExecutor;
+    private final List<ConversationExecutor> executors = new ArrayList<>();
+
+    @BeforeEach
+    @Transactional
+    void setUp() {
+        transcriptJournal.flush(); // Don't let entries from an earlier test land after the cleanup
+        ConversationEntry.deleteAll();
+
+        ObjectMapper mapper = new ObjectMapper();
+        ChatbotFlow flow = new ChatbotFlow();
+        flow.flowId = "websocket-test-flow";
+        flow.startBlockId = "block-welcome";
+
+        Block blockWelcome = new Block();
+        blockWelcome.id = "block-welcome";
+        blockWelcome.type = "MESSAGE";
+        blockWelcome.data = mapper.createObjectNode().put("text", "Welcome!");
+        blockWelcome.nextBlockId = "block-intent";
+
+        Block blockIntent = new Block();
+        blockIntent.id = "block-intent";
+        blockIntent.type = "INTENT_DETECTION";
+        ObjectNode data = mapper.createObjectNode();
+        data.putArray("intents").add("Get Weather");
+        data.set("mappings", mapper.createObjectNode().put("Get Weather", "block-weather"));
+        data.put("fallbackBlockId", "block-weather");
+        blockIntent.data = data;
+
+        Block blockWeather = new Block();
+        blockWeather.id = "block-weather";
+        blockWeather.type = "MESSAGE";
+        blockWeather.data = mapper.createObjectNode().put("text", "It is sunny.");
+
+        flow.blocks = List.of(blockWelcome, blockIntent, blockWeather);
+        configService.updateFlow(flow);
+
+        endpoint = ClientProxy.unwrap(startWebSocket);
+        configuredExecutor = endpoint.conversationExecutor;
+
+        // A slow client that blocks the calling thread, like a synchronous HTTP call would
+        Mockito.when(geminiClientMock.generateContent(anyString(), any()))
+                .thenAnswer(invocation -> Uni.createFrom().item(() -> {
+                    sleep(GEMINI_LATENCY_MS);
+                    return TestFixtures.geminiResponse("Get Weather");
+                }));
+    }
+
+    @AfterEach
+    void tearDown() {
+        endpoint.conversationExecutor = configuredExecutor;
+        executors.forEach(ConversationExecutor::close);
+        executors.clear();
+    }
+
+    // The endpoint runs new connections on an executor of this mode, whatever chatbot.execution-mode says
+    private void useExecutor(ConversationExecutor.Mode mode) {
+        ConversationExecutor executor = new ConversationExecutor(managedExecutor, mode);
+        executors.add(executor);
+        endpoint.conversationExecutor = executor;
+    }
+
+    @Test
+    void testMessagesFromOneSessionAreHandledInOrder() throws InterruptedException {
+        // Arrange
+        useExecutor(ConversationExecutor.Mode.VIRTUAL);
+        CountDownLatch replies = new CountDownLatch(3); // The welcome message plus one answer per user message
+        Session session = TestFixtures.session("ordered-session", text -> replies.countDown());
+
+        // Act
+        startWebSocket.onOpen(session);
+        startWebSocket.onMessage("first", session);
+        startWebSocket.onMessage("second", session);
+
+        // Assert
+        assertTrue(replies.await(10, TimeUnit.SECONDS), "Not all replies were sent.");
+        List<String> transcript = transcriptOf("ordered-session", 5);
+        assertEquals(List.of("BOT:Welcome!", "USER:first", "BOT:It is sunny.", "USER:second", "BOT:It is sunny."), transcript);
+        startWebSocket.onClose(session);
+    }
+
+    @Test
+    void testSweepPingsAndDropsDeadConnections() throws Exception {
+        // Arrange
+        CountDownLatch welcomed = new CountDownLatch(2);
+        Session alive = TestFixtures.session("sweep-alive", text -> welcomed.countDown());
+        Mockito.when(alive.isOpen()).thenReturn(true);
+        Session gone = TestFixtures.session("sweep-gone", text -> welcomed.countDown()); // Not open, and @OnClose never came
+        startWebSocket.onOpen(alive);
+        startWebSocket.onOpen(gone);
+        assertTrue(welcomed.await(5, TimeUnit.SECONDS), "Not every session was welcomed.");
+        double unresponsive = evicted("unresponsive");
+        double abandoned = evicted("abandoned");
+
+        // Act & Assert
+        startWebSocket.sweep(System.nanoTime());
+        Mockito.verify(alive.getAsyncRemote()).sendPing(any());
+        Mockito.verify(alive, Mockito.never()).close(any());
+        assertEquals(abandoned + 1, evicted("abandoned"));
+
+        // Neither a message nor a pong for longer than the liveness timeout
+        startWebSocket.sweep(System.nanoTime() + Duration.ofMinutes(5).toNanos());
+        Mockito.verify(alive).close(any());
+        assertEquals(unresponsive + 1, evicted("unresponsive"));
+        assertEquals(abandoned + 1, evicted("abandoned"));
+    }
+
+    @Test
+    void testInvalidFlowIdIsRejected() throws Exception {
+        Session session = TestFixtures.session("bad-flow-session");
+        Mockito.when(session.getRequestParameterMap()).thenReturn(Map.of("flowId", List.of("<script>alert(1)</script>")));
+
+        startWebSocket.onOpen(session);
+
+        Mockito.verify(session).close(any());
+        Mockito.verify(session.getAsyncRemote(), Mockito.never()).sendText(any(String.class), any(SendHandler.class));
+    }
+
+    private double evicted(String cause) {
+        return registry.get("chatbot.sessions.evicted").tag("cause", cause).counter().count();
+    }
+
+    @Test
+    void testVirtualThreadsAreNotSlowerUnderBlockingGemini() throws InterruptedException {
+        RunMetrics platform = runConversations(ConversationExecutor.Mode.PLATFORM);
+        RunMetrics virtual = runConversations(ConversationExecutor.Mode.VIRTUAL);
+
+        assertEquals(SESSIONS, platform.completed);
+        assertEquals(SESSIONS, virtual.completed);
+        // A blocked virtual thread parks instead of holding one of the pool's threads, so the calls don't queue up
+        assertTrue(virtual.elapsedNanos <= platform.elapsedNanos * 1.25,
+                "Virtual threads were slower, " + platform + " vs " + virtual);
+    }
+
+    private RunMetrics runConversations(ConversationExecutor.Mode mode) throws InterruptedException {
+        useExecutor(mode);
+
+        CountDownLatch welcomed = new CountDownLatch(SESSIONS);
+        CountDownLatch answered = new CountDownLatch(SESSIONS);
+        long[] sentAt = new long[SESSIONS];
+        long[] answeredAt = new long[SESSIONS];
+        List<Session> sessions = new ArrayList<>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            int index = i;
+            sessions.add(TestFixtures.session(mode + "-session-" + i, text -> {
+                if ("Welcome!".equals(text)) {
+                    welcomed.countDown();
+                } else {
+                    answeredAt[index] = System.nanoTime();
+                    answered.countDown();
+                }
+            }));
+        }
+
+        for (Session session : sessions) {
+            startWebSocket.onOpen(session);
+        }
+        assertTrue(welcomed.await(60, TimeUnit.SECONDS), "Not every session was welcomed.");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SESSIONS; i++) {
+            sentAt[i] = System.nanoTime();
+            // Every message is different, so none of them can be answered from the intent cache
+            startWebSocket.onMessage("what is the weather like today? #" + i, sessions.get(i));
+        }
+        assertTrue(answered.await(120, TimeUnit.SECONDS), "Not every session got an answer.");
+        long elapsed = System.nanoTime() - start;
+
+        long[] latencies = new long[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            latencies[i] = answeredAt[i] - sentAt[i];
+        }
+        Arrays.sort(latencies);
+        for (Session session : sessions) {
+            startWebSocket.onClose(session);
+        }
+        return new RunMetrics(mode, SESSIONS - (int) answered.getCount(), elapsed, latencies);
+    }
+
+    private List<String> transcriptOf(String conversationId, int expectedEntries) throws InterruptedException {
+        // Each reply is journaled right after it is sent, so give the last one a moment to be queued
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        List<String> transcript;
+        do {
+            transcriptJournal.flush();
+            transcript = ConversationEntry.<ConversationEntry>find("conversationId = ?1 order by id", conversationId)
+                    .list().stream()
+                    .map(entry -> entry.actor + ":" + entry.message)
+                    .toList();
+        } while (transcript.size() < expectedEntries && System.nanoTime() < deadline && sleepBriefly());
+        return transcript;
+    }
+
+    private static boolean sleepBriefly() throws InterruptedException {
+        Thread.sleep(20);
+        return true;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record RunMetrics(ConversationExecutor.Mode mode, int completed, long elapsedNanos, long[] sortedLatencies) {
+
+        long percentileMillis(double percentile) {
+            int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            return TimeUnit.NANOSECONDS.toMillis(sortedLatencies[Math.max(0, index)]);
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1_000_000_000.0;
+            return String.format("%-8s throughput %.0f msg/s, p50 %d ms, p99 %d ms, max %d ms",
+                    mode, completed / seconds, percentileMillis(0.50), percentileMillis(0.99), percentileMillis(1.0));
+        }
+    }
+}
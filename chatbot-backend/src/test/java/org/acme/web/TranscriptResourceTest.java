@@ -0,0 +1,122 @@
+package org.acme.web;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.path.json.JsonPath;
+import jakarta.inject.Inject;
+import org.acme.persistence.ConversationEntry;
+import org.acme.persistence.TranscriptJournal;
+import org.acme.persistence.TranscriptLine;
+import org.acme.persistence.TranscriptRollup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+class TranscriptResourceTest {
+
+    private static final Instant START = Instant.parse("2025-03-01T10:00:00Z");
+
+    @Inject
+    TranscriptJournal transcriptJournal;
+
+    @BeforeEach
+    void setUp() {
+        transcriptJournal.flush(); // Don't let entries from an earlier test land after the cleanup
+        QuarkusTransaction.requiringNew().run(() -> {
+            ConversationEntry.deleteAll();
+            // Two conversations taking turns, a second apart
+            for (int i = 0; i < 5; i++) {
+                entry("transcript-a", "a" + i, i * 2);
+                entry("transcript-b", "b" + i, i * 2 + 1);
+            }
+        });
+    }
+
+    @Test
+    void testPagesFollowTheCursor() {
+        List<String> messages = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            JsonPath page = given().queryParam("limit", 2)
+                    .queryParam("after", after)
+                    .get("/api/transcripts/transcript-a")
+                    .then().statusCode(200)
+                    .extract().jsonPath();
+            messages.addAll(page.getList("entries.message", String.class));
+            after = page.getString("next");
+            pages++;
+        } while (after != null);
+
+        assertEquals(List.of("a0", "a1", "a2", "a3", "a4"), messages);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    void testLastPageHasNoCursor() {
+        given().get("/api/transcripts/transcript-b")
+                .then().statusCode(200)
+                .body("entries.message", contains("b0", "b1", "b2", "b3", "b4"))
+                .body("next", nullValue());
+        given().queryParam("after", "not-a-cursor").get("/api/transcripts/transcript-b").then().statusCode(400)
+                .body("error", equalTo("Invalid cursor."));
+        given().queryParam("limit", 0).get("/api/transcripts/transcript-b").then().statusCode(400);
+    }
+
+    @Test
+    void testExportIsOneEntryPerLine() {
+        String body = given().queryParam("from", START.plusSeconds(2).toString())
+                .queryParam("to", START.plusSeconds(6).toString())
+                .get("/api/transcripts/export")
+                .then().statusCode(200)
+                .contentType(TranscriptResource.NDJSON)
+                .extract().asString();
+
+        List<String> messages = body.lines().map(line -> JsonPath.from(line).getString("message")).toList();
+        assertEquals(List.of("a1", "b1", "a2", "b2"), messages);
+        assertEquals("transcript-b", JsonPath.from(body.lines().toList().get(1)).getString("conversationId"));
+
+        String oneConversation = given().queryParam("conversationId", "transcript-a")
+                .get("/api/transcripts/export")
+                .then().statusCode(200)
+                .extract().asString();
+        assertEquals(5, oneConversation.lines().count());
+
+        given().queryParam("from", "yesterday").get("/api/transcripts/export").then().statusCode(400);
+    }
+
+    @Test
+    void testArchiveServesTheRollup() {
+        QuarkusTransaction.requiringNew().run(() -> {
+            TranscriptRollup.deleteAll();
+            TranscriptRollup rollup = new TranscriptRollup("transcript-old");
+            rollup.append(List.of(new TranscriptLine(1L, "transcript-old", START, "USER", "old", null),
+                    new TranscriptLine(2L, "transcript-old", START.plusSeconds(1), "BOT", "older reply", "start")));
+            rollup.persist();
+        });
+
+        String body = given().get("/api/transcripts/transcript-old/archive")
+                .then().statusCode(200)
+                .contentType(TranscriptResource.NDJSON)
+                .extract().asString();
+        assertEquals(List.of("old", "older reply"), body.lines().map(line -> JsonPath.from(line).getString("message")).toList());
+
+        given().get("/api/transcripts/transcript-a/archive").then().statusCode(404);
+    }
+
+    private static void entry(String conversationId, String message, int second) {
+        ConversationEntry entry = new ConversationEntry(conversationId, "USER", message, null);
+        entry.timestamp = START.plusSeconds(second);
+        entry.persist();
+    }
+}